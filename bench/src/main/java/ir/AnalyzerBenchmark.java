@@ -0,0 +1,63 @@
+package ir;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.Version;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+// Tokenization throughput of the analyzers used for the stemmed and the unstemmed fields,
+// measured over the titles and abstracts of the whole collection
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnalyzerBenchmark {
+
+    @Param({"porter", "standard"})
+    public String analyzerType;
+
+    private Analyzer analyzer;
+    private String[] texts;
+
+    @Setup(Level.Trial)
+    public void setUp(CorpusState state) {
+        analyzer = analyzerType.equals("porter") ? new PorterStemmerAnalyzer() : new StandardAnalyzer(Version.LUCENE_42);
+
+        texts = new String[state.docs.size() * 2];
+        int i = 0;
+        for (DocumentInCollection doc : state.docs) {
+            texts[i++] = doc.getTitle();
+            texts[i++] = doc.getAbstractText();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        analyzer.close();
+    }
+
+    // Returns the number of tokens so the work cannot be eliminated
+    @Benchmark
+    public int tokenizeCollection() throws IOException {
+        int tokens = 0;
+        for (String text : texts) {
+            TokenStream stream = analyzer.tokenStream("abstract", new StringReader(text));
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens += term.length();
+            }
+            stream.end();
+            stream.close();
+        }
+        return tokens;
+    }
+}
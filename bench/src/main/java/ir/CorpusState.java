@@ -0,0 +1,46 @@
+package ir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+// The parsed document collection shared by the benchmarks.
+// The application reports progress on System.out, which is silenced so console I/O is not measured.
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    @Param("../data/corpus_part2.xml")
+    public String corpus;
+
+    public List<DocumentInCollection> docs;
+    public Qrels qrels;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        silenceStdout();
+
+        DocumentCollectionParser parser = new DocumentCollectionParser();
+        parser.parse(corpus);
+        docs = parser.getDocuments();
+        if (docs.isEmpty()) {
+            throw new IllegalStateException("No documents parsed from " + corpus);
+        }
+        qrels = new Qrels(docs);
+    }
+
+    static void silenceStdout() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+
+            }
+        }));
+    }
+}
@@ -0,0 +1,62 @@
+package ir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cost of evaluating a ranking against the relevance judgments
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvaluationBenchmark {
+
+    private static final String QUERY = "online gaming behaviour characteristics";
+
+    private LuceneSearchApp engine;
+    private Qrels qrels;
+    private SearchResults retrieved;
+    private ExperimentRunner.Configuration configuration;
+    private File prCurveFile;
+
+    @Setup(Level.Trial)
+    public void setUp(CorpusState state) throws IOException {
+        engine = new LuceneSearchApp();
+        engine.index(state.docs);
+        qrels = state.qrels;
+        retrieved = engine.search(QUERY, LuceneSearchApp.SimilarityType.BM25_SIMILARITY, false);
+        configuration = new ExperimentRunner.Configuration(LuceneSearchApp.SimilarityType.BM25_SIMILARITY, false);
+        prCurveFile = File.createTempFile("pr_curve", ".txt");
+        prCurveFile.deleteOnExit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.close();
+        prCurveFile.delete();
+    }
+
+    // The evaluation the experiment grid runs per query and configuration, without the search
+    @Benchmark
+    public ExperimentRunner.Result evaluateRanking() {
+        return ExperimentRunner.evaluate(QUERY, configuration, retrieved.totalHits, retrieved.getIds(),
+                qrels.get(QUERY, 18), 10);
+    }
+
+    @Benchmark
+    public void prCurveData() {
+        engine.getPRCurveData(qrels, retrieved, QUERY, prCurveFile.getPath());
+    }
+
+    @Benchmark
+    public List<ExperimentRunner.Result> experimentGrid() throws IOException {
+        ExperimentRunner runner = new ExperimentRunner(engine, qrels, 18, 10);
+        return runner.run(Arrays.asList(QUERY), ExperimentRunner.allConfigurations());
+    }
+}
@@ -0,0 +1,39 @@
+package ir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Time to build the in-memory index of the whole collection, with both the stemmed and unstemmed fields
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+
+    private LuceneSearchApp engine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new LuceneSearchApp();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public LuceneSearchApp index(CorpusState state) {
+        engine.index(state.docs);
+        return engine;
+    }
+
+    @Benchmark
+    public LuceneSearchApp bulkIndex(CorpusState state) {
+        engine.index(state.docs, new BulkIndexer());
+        return engine;
+    }
+}
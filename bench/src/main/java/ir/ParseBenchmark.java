@@ -0,0 +1,40 @@
+package ir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// Time to parse the whole collection with the SAX parser and with the chunked parallel parser
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param("../data/corpus_part2.xml")
+    public String corpus;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        CorpusState.silenceStdout();
+    }
+
+    @Benchmark
+    public List<DocumentInCollection> parse() {
+        DocumentCollectionParser parser = new DocumentCollectionParser();
+        parser.parse(corpus);
+        return parser.getDocuments();
+    }
+
+    @Benchmark
+    public List<DocumentInCollection> parseChunked() {
+        DocumentCollectionParser parser = new DocumentCollectionParser();
+        parser.parse(new File(corpus), ForkJoinPool.commonPool());
+        return parser.getDocuments();
+    }
+}
@@ -0,0 +1,63 @@
+package ir;
+
+import org.apache.lucene.search.TopDocs;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Latency of a single search per similarity type and shard count, over every match, over the top 10 and
+// aggregating the matches without ranking them
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    @Param({"VSM_SIMILARITY", "BM25_SIMILARITY", "VSM_SUBLINEAR_SIMILARITY"})
+    public LuceneSearchApp.SimilarityType similarityType;
+
+    @Param({"false", "true"})
+    public boolean stemmed;
+
+    @Param("online gaming behaviour characteristics")
+    public String query;
+
+    // 1 searches a single index, more partitions the corpus into that many shards searched in parallel
+    @Param({"1", "4"})
+    public int shards;
+
+    private LuceneSearchApp engine;
+
+    @Setup(Level.Trial)
+    public void setUp(CorpusState state) {
+        engine = new LuceneSearchApp();
+        if (shards > 1) {
+            engine.index(state.docs, shards);
+        }
+        else {
+            engine.index(state.docs);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public TopDocs searchAll() {
+        return engine.search(query, similarityType, stemmed);
+    }
+
+    @Benchmark
+    public TopDocs searchTop10() {
+        return engine.search(query, similarityType, stemmed, 10);
+    }
+
+    @Benchmark
+    public HitStatsCollector searchStats() {
+        return engine.searchStats(query, similarityType, stemmed, null);
+    }
+}
@@ -0,0 +1,106 @@
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.util.Version;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Indexes a batch of documents with a pool of worker threads that all write to the same IndexWriter.
+// Each worker claims small runs of documents and reuses one IndexedDocument, the writer flushes a
+// segment per thread state so indexing scales with the number of cores.
+public class BulkIndexer {
+
+    // Number of documents a worker claims at once
+    private static final int BATCH_SIZE = 64;
+
+    private final int threads;
+    private final double ramBufferSizeMB;
+    private final double segmentsPerTier;
+
+    private double docsPerSecond;
+
+    public BulkIndexer() {
+        this(Runtime.getRuntime().availableProcessors(), 64, 10);
+    }
+
+    public BulkIndexer(int threads, double ramBufferSizeMB, double segmentsPerTier) {
+        this.threads = threads;
+        this.ramBufferSizeMB = ramBufferSizeMB;
+        this.segmentsPerTier = segmentsPerTier;
+        this.docsPerSecond = 0;
+    }
+
+    // Returns a writer config tuned for concurrent bulk loading
+    public IndexWriterConfig newConfig(Analyzer analyzer) {
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_42, analyzer);
+        config.setRAMBufferSizeMB(ramBufferSizeMB);
+        config.setMaxThreadStates(Math.max(threads, IndexWriterConfig.DEFAULT_MAX_THREAD_STATES));
+
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setSegmentsPerTier(segmentsPerTier);
+        config.setMergePolicy(mergePolicy);
+
+        return config;
+    }
+
+    // Adds the documents to the writer using all worker threads and returns once every document is added.
+    // The order of the documents in the index is not preserved.
+    public void index(final IndexWriter writer, List<DocumentInCollection> docs) throws IOException {
+        final DocumentInCollection[] batch = docs.toArray(new DocumentInCollection[docs.size()]);
+        final AtomicInteger next = new AtomicInteger(0);
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> workers = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        IndexedDocument document = new IndexedDocument();
+                        int from;
+                        while ((from = next.getAndAdd(BATCH_SIZE)) < batch.length) {
+                            int to = Math.min(from + BATCH_SIZE, batch.length);
+                            for (int j = from; j < to; j++) {
+                                writer.addDocument(document.set(batch[j]));
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        docsPerSecond = (seconds > 0) ? batch.length / seconds : 0;
+        System.out.println("Indexed " + batch.length + " documents with " + threads + " threads ("
+                + Math.round(docsPerSecond) + " docs/sec)");
+    }
+
+    // Indexing throughput of the last call to index
+    public double getDocsPerSecond() {
+        return docsPerSecond;
+    }
+}
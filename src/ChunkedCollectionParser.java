@@ -0,0 +1,374 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Parses a document collection file in parallel, see DocumentCollectionParser.parse(file, pool).
+// The file is memory-mapped and split into chunks of roughly equal size that each start at an <item> tag, so
+// every item lies within one chunk. The chunks are parsed on a fork-join pool by a small pull parser that reads
+// the mapped bytes directly, and their documents are appended to the corpus store in file order with the same
+// ids the SAX parser would have given them: one per item, titleless ones included.
+// The parser only knows the elements of the collection format and the predefined and numeric entities; comments
+// and processing instructions are skipped, CDATA sections are rejected.
+public class ChunkedCollectionParser {
+
+    private static final long MIN_CHUNK_SIZE = 256 * 1024;
+    private static final long MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    // Bytes mapped at a time while looking for the item that starts a chunk
+    private static final int SCAN_WINDOW = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] ITEM = bytes("item");
+    private static final byte[] TITLE = bytes("title");
+    private static final byte[] ABSTRACT = bytes("abstract");
+    private static final byte[] SEARCH_TASK_NUMBER = bytes("search_task_number");
+    private static final byte[] QUERY = bytes("query");
+    private static final byte[] RELEVANCE = bytes("relevance");
+
+    private ChunkedCollectionParser() {
+
+    }
+
+    private static byte[] bytes(String name) {
+        return name.getBytes(UTF_8);
+    }
+
+    // Parses the collection in the file and appends its documents to the corpus store
+    public static void parse(File file, ForkJoinPool pool, CorpusStore corpus) throws IOException {
+        long start = System.nanoTime();
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            long length = channel.size();
+            long chunkSize = Math.min(MAX_CHUNK_SIZE,
+                    Math.max(MIN_CHUNK_SIZE, length / (4L * pool.getParallelism())));
+
+            // Chunk i spans the bytes from starts[i] to starts[i + 1]
+            List<Long> starts = new ArrayList<Long>();
+            starts.add(0L);
+            long next = chunkSize;
+            while (next < length) {
+                long itemStart = findItem(channel, next, length);
+                if (itemStart == length) {
+                    break;
+                }
+                starts.add(itemStart);
+                next = itemStart + chunkSize;
+            }
+            starts.add(length);
+
+            Chunk[] chunks = new Chunk[starts.size() - 1];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new Chunk(channel, starts.get(i), starts.get(i + 1));
+            }
+            try {
+                pool.invoke(new ParseTask(chunks, 0, chunks.length));
+            }
+            catch (IllegalStateException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+
+            int items = 0;
+            for (Chunk chunk : chunks) {
+                items += chunk.items;
+            }
+            int id = DocumentInCollection.reserveIds(items);
+            for (Chunk chunk : chunks) {
+                corpus.addAll(chunk.rows, id);
+                id += chunk.items;
+            }
+        }
+        finally {
+            input.close();
+        }
+        Metrics.record(Metrics.PARSING, start);
+    }
+
+    // Returns the offset of the first <item> tag at or after from, or length if there is none
+    private static long findItem(FileChannel channel, long from, long length) throws IOException {
+        for (long window = from; window < length; window += SCAN_WINDOW) {
+            // The windows overlap by the length of the tag and the byte after it
+            long end = Math.min(length, window + SCAN_WINDOW + ITEM.length + 2);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, window, end - window);
+            int limit = (int) Math.min(SCAN_WINDOW, end - window);
+            for (int i = 0; i < limit; i++) {
+                if (buffer.get(i) == '<' && isTag(buffer, i + 1, ITEM)) {
+                    return window + i;
+                }
+            }
+        }
+        return length;
+    }
+
+    // True if the bytes at from are the name followed by the end of a tag name
+    private static boolean isTag(ByteBuffer buffer, int from, byte[] name) {
+        if (from + name.length >= buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(from + i) != name[i]) {
+                return false;
+            }
+        }
+        byte next = buffer.get(from + name.length);
+        return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\n' || next == '\r';
+    }
+
+    // Splits the chunks in halves until each task parses a single chunk
+    private static class ParseTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+
+        private ParseTask(Chunk[] chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParseTask(chunks, from, middle), new ParseTask(chunks, middle, to));
+                return;
+            }
+            try {
+                chunks[from].parse();
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // A range of the file and the documents parsed from it, whose ids count the items from 0
+    private static class Chunk {
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        private CorpusStore rows;
+        private int items;
+
+        private ByteBuffer buffer;
+        private byte[] scratch;
+
+        private Chunk(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        private void parse() throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            scratch = new byte[1024];
+            rows = new CorpusStore();
+            items = 0;
+
+            boolean item = false;
+            String title = null;
+            String abstractText = null;
+            int searchTaskNumber = 0;
+            String query = null;
+            boolean relevant = false;
+
+            int limit = buffer.limit();
+            int textStart = 0;
+            int pos = 0;
+            int tag;
+            while ((tag = indexOf('<', pos)) >= 0 && tag + 1 < limit) {
+                byte next = buffer.get(tag + 1);
+                if (next == '?') {
+                    pos = skipPast(tag, "?>");
+                    continue;
+                }
+                if (next == '!') {
+                    if (startsWith(tag, "<!--")) {
+                        pos = skipPast(tag, "-->");
+                        continue;
+                    }
+                    if (startsWith(tag, "<![CDATA[")) {
+                        throw new IOException("CDATA sections are not supported at offset " + (start + tag));
+                    }
+                    pos = skipPast(tag, ">");
+                    continue;
+                }
+
+                boolean endTag = (next == '/');
+                int name = endTag ? tag + 2 : tag + 1;
+                int close = indexOf('>', name);
+                if (close < 0) {
+                    throw new IOException("Unterminated tag at offset " + (start + tag));
+                }
+                boolean emptyElement = !endTag && buffer.get(close - 1) == '/';
+                pos = close + 1;
+
+                if (!endTag) {
+                    textStart = pos;
+                    if (isTag(buffer, name, ITEM)) {
+                        // Like the SAX parser, every item takes an id even if it is dropped for lack of a title
+                        item = true;
+                        items++;
+                        title = null;
+                        abstractText = null;
+                        searchTaskNumber = 0;
+                        query = null;
+                        relevant = false;
+                    }
+                    if (!emptyElement) {
+                        continue;
+                    }
+                }
+
+                if (!item) {
+                    continue;
+                }
+                if (isTag(buffer, name, ITEM)) {
+                    item = false;
+                    if (title != null) {
+                        rows.add(items - 1, title, abstractText, searchTaskNumber, query, relevant);
+                    }
+                }
+                else if (isTag(buffer, name, TITLE)) {
+                    title = text(textStart, endTag ? tag : textStart);
+                }
+                else if (isTag(buffer, name, ABSTRACT)) {
+                    abstractText = text(textStart, endTag ? tag : textStart);
+                }
+                else if (isTag(buffer, name, SEARCH_TASK_NUMBER)) {
+                    searchTaskNumber = Integer.valueOf(text(textStart, endTag ? tag : textStart));
+                }
+                else if (isTag(buffer, name, QUERY)) {
+                    query = text(textStart, endTag ? tag : textStart);
+                }
+                else if (isTag(buffer, name, RELEVANCE)) {
+                    if (Integer.valueOf(text(textStart, endTag ? tag : textStart)) == 1) {
+                        relevant = true;
+                    }
+                }
+            }
+
+            buffer = null;
+            scratch = null;
+        }
+
+        private int indexOf(char c, int from) {
+            int limit = buffer.limit();
+            for (int i = from; i < limit; i++) {
+                if (buffer.get(i) == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean startsWith(int from, String prefix) {
+            if (from + prefix.length() > buffer.limit()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (buffer.get(from + i) != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int skipPast(int from, String terminator) throws IOException {
+            for (int i = from; i < buffer.limit(); i++) {
+                if (startsWith(i, terminator)) {
+                    return i + terminator.length();
+                }
+            }
+            throw new IOException("Unterminated markup at offset " + (start + from));
+        }
+
+        // The text between from and to without the end tags of nested elements, decoded and trimmed like the
+        // SAX parser reports it. Like DocumentCollectionParser, the text starts after the last start tag, so
+        // from is the end of the last start tag before to.
+        private String text(int from, int to) {
+            if (to - from > scratch.length) {
+                scratch = new byte[Math.max(to - from, 2 * scratch.length)];
+            }
+            int length = 0;
+            boolean markup = false;
+            for (int i = from; i < to; i++) {
+                byte b = buffer.get(i);
+                if (b == '<') {
+                    markup = true;
+                }
+                else if (markup) {
+                    markup = (b != '>');
+                }
+                else {
+                    scratch[length++] = b;
+                }
+            }
+
+            String text = new String(scratch, 0, length, UTF_8);
+            if (text.indexOf('\r') >= 0) {
+                text = text.replace("\r\n", "\n").replace('\r', '\n');
+            }
+            if (text.indexOf('&') >= 0) {
+                text = unescape(text);
+            }
+            return text.trim();
+        }
+    }
+
+    private static String unescape(String text) {
+        StringBuilder unescaped = new StringBuilder(text.length());
+        int pos = 0;
+        int amp;
+        while ((amp = text.indexOf('&', pos)) >= 0) {
+            int semicolon = text.indexOf(';', amp);
+            if (semicolon < 0) {
+                break;
+            }
+            unescaped.append(text, pos, amp);
+            String entity = text.substring(amp + 1, semicolon);
+            if (entity.equals("amp")) {
+                unescaped.append('&');
+            }
+            else if (entity.equals("lt")) {
+                unescaped.append('<');
+            }
+            else if (entity.equals("gt")) {
+                unescaped.append('>');
+            }
+            else if (entity.equals("quot")) {
+                unescaped.append('"');
+            }
+            else if (entity.equals("apos")) {
+                unescaped.append('\'');
+            }
+            else if (entity.startsWith("#x")) {
+                unescaped.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+            }
+            else if (entity.startsWith("#")) {
+                unescaped.appendCodePoint(Integer.parseInt(entity.substring(1)));
+            }
+            else {
+                unescaped.append('&').append(entity).append(';');
+            }
+            pos = semicolon + 1;
+        }
+        return unescaped.append(text, pos, text.length()).toString();
+    }
+}
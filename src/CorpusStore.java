@@ -0,0 +1,210 @@
+import java.util.*;
+
+// Column store of a document collection.
+// Every field is kept in its own array indexed by row: the query strings and search task numbers, which only
+// take a handful of distinct values, are dictionary-encoded into int codes and the relevance flags are a
+// BitSet. The documents are exposed as DocumentInCollection views of their rows, so callers keep using the
+// same accessors while the collection costs a few arrays instead of an object graph per document.
+// Rows are appended by a single thread, typically the parser, before the store is shared.
+public class CorpusStore {
+
+    // List of views of the rows, which is what DocumentCollectionParser.getDocuments returns
+    private class Documents extends AbstractList<DocumentInCollection> implements RandomAccess {
+
+        @Override
+        public DocumentInCollection get(int row) {
+            if (row < 0 || row >= size) {
+                throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+            }
+            return new DocumentInCollection(CorpusStore.this, row);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private int size;
+    private int[] ids;
+    // Kept as strings: on Java 8 a char arena would store them as UTF-16 too and only save the String headers,
+    // about 3% of their memory on corpus_part2.xml, while every getTitle would then allocate a new String
+    private String[] titles;
+    private String[] abstractTexts;
+    private int[] queryCodes;
+    private int[] searchTaskCodes;
+    private final BitSet relevant;
+
+    private final List<String> queries;
+    private final Map<String, Integer> queryDictionary;
+    private int[] searchTaskNumbers;
+    private final Map<Integer, Integer> searchTaskDictionary;
+
+    public CorpusStore() {
+        this(1024);
+    }
+
+    public CorpusStore(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.size = 0;
+        this.ids = new int[capacity];
+        this.titles = new String[capacity];
+        this.abstractTexts = new String[capacity];
+        this.queryCodes = new int[capacity];
+        this.searchTaskCodes = new int[capacity];
+        this.relevant = new BitSet(capacity);
+
+        this.queries = new ArrayList<String>();
+        this.queryDictionary = new HashMap<String, Integer>();
+        this.searchTaskNumbers = new int[16];
+        this.searchTaskDictionary = new HashMap<Integer, Integer>();
+    }
+
+    // Appends a copy of the document, keeping its id, and returns its row
+    public int add(DocumentInCollection doc) {
+        return add(doc.getId(), doc.getTitle(), doc.getAbstractText(), doc.getSearchTaskNumber(), doc.getQuery(),
+                doc.isRelevant());
+    }
+
+    // Appends a new document with the next free document id and returns its row
+    public int add(String title, String abstractText, int searchTaskNumber, String query, boolean isRelevant) {
+        return add(DocumentInCollection.nextId(), title, abstractText, searchTaskNumber, query, isRelevant);
+    }
+
+    // Appends a document with the given id, which the caller has reserved, and returns its row
+    int add(int id, String title, String abstractText, int searchTaskNumber, String query, boolean isRelevant) {
+        if (size == ids.length) {
+            int capacity = size + (size >> 1) + 1;
+            ids = Arrays.copyOf(ids, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+            abstractTexts = Arrays.copyOf(abstractTexts, capacity);
+            queryCodes = Arrays.copyOf(queryCodes, capacity);
+            searchTaskCodes = Arrays.copyOf(searchTaskCodes, capacity);
+        }
+
+        int row = size++;
+        ids[row] = id;
+        titles[row] = title;
+        abstractTexts[row] = abstractText;
+        queryCodes[row] = encodeQuery(query);
+        searchTaskCodes[row] = encodeSearchTask(searchTaskNumber);
+        relevant.set(row, isRelevant);
+        return row;
+    }
+
+    // Appends all rows of the other store in order, adding idOffset to their ids
+    void addAll(CorpusStore rows, int idOffset) {
+        for (int row = 0; row < rows.size; row++) {
+            add(rows.getId(row) + idOffset, rows.getTitle(row), rows.getAbstractText(row),
+                    rows.getSearchTaskNumber(row), rows.getQuery(row), rows.isRelevant(row));
+        }
+    }
+
+    private int encodeQuery(String query) {
+        Integer code = queryDictionary.get(query);
+        if (code == null) {
+            code = queries.size();
+            queries.add(query);
+            queryDictionary.put(query, code);
+        }
+        return code;
+    }
+
+    private int encodeSearchTask(int searchTaskNumber) {
+        Integer code = searchTaskDictionary.get(searchTaskNumber);
+        if (code == null) {
+            code = searchTaskDictionary.size();
+            if (code == searchTaskNumbers.length) {
+                searchTaskNumbers = Arrays.copyOf(searchTaskNumbers, 2 * code);
+            }
+            searchTaskNumbers[code] = searchTaskNumber;
+            searchTaskDictionary.put(searchTaskNumber, code);
+        }
+        return code;
+    }
+
+    // The documents in row order as views, they read and write through to the store
+    public List<DocumentInCollection> getDocuments() {
+        return new Documents();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    public String getTitle(int row) {
+        return titles[row];
+    }
+
+    public String getAbstractText(int row) {
+        return abstractTexts[row];
+    }
+
+    public int getSearchTaskNumber(int row) {
+        return searchTaskNumbers[searchTaskCodes[row]];
+    }
+
+    public String getQuery(int row) {
+        return queries.get(queryCodes[row]);
+    }
+
+    public boolean isRelevant(int row) {
+        return relevant.get(row);
+    }
+
+    // Returns the first relevant row from the given one on, -1 if there is none
+    public int nextRelevant(int fromRow) {
+        int row = relevant.nextSetBit(fromRow);
+        return (row < size) ? row : -1;
+    }
+
+    // Dictionary codes of the query and the search task number of a row, from 0 to getQueryCount() - 1 and
+    // getSearchTaskCount() - 1
+    public int getQueryCode(int row) {
+        return queryCodes[row];
+    }
+
+    public int getSearchTaskCode(int row) {
+        return searchTaskCodes[row];
+    }
+
+    public int getQueryCount() {
+        return queries.size();
+    }
+
+    public int getSearchTaskCount() {
+        return searchTaskDictionary.size();
+    }
+
+    public String decodeQuery(int code) {
+        return queries.get(code);
+    }
+
+    public int decodeSearchTask(int code) {
+        return searchTaskNumbers[code];
+    }
+
+    void setTitle(int row, String title) {
+        titles[row] = title;
+    }
+
+    void setAbstractText(int row, String abstractText) {
+        abstractTexts[row] = abstractText;
+    }
+
+    void setSearchTaskNumber(int row, int searchTaskNumber) {
+        searchTaskCodes[row] = encodeSearchTask(searchTaskNumber);
+    }
+
+    void setQuery(int row, String query) {
+        queryCodes[row] = encodeQuery(query);
+    }
+
+    void setRelevant(int row, boolean isRelevant) {
+        relevant.set(row, isRelevant);
+    }
+}
@@ -6,9 +6,12 @@
  * Matias Frosterus <matias.frosterus@aalto.fi>
  */
 
+import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -20,7 +23,26 @@ import org.xml.sax.helpers.DefaultHandler;
 
 public class DocumentCollectionParser extends DefaultHandler {
 	
-	private List<DocumentInCollection> docs;
+	// receives the documents of the collection one at a time as they are parsed
+	public interface Handler {
+		void document(DocumentInCollection doc) throws IOException;
+	}
+	
+	// marks the end of the collection in the queue between the parser and the handler
+	private static final Object END = new Object();
+	
+	// takes the place of END in the queue if the parser failed
+	private static class Failure {
+		private final Exception exception;
+		
+		private Failure(Exception exception) {
+			this.exception = exception;
+		}
+	}
+	
+	private CorpusStore corpus;
+	private BlockingQueue<Object> queue;
+	private volatile boolean aborted;
 	
 	private boolean item;
 	private boolean title;
@@ -29,11 +51,13 @@ public class DocumentCollectionParser extends DefaultHandler {
 	private boolean query;
 	private boolean relevance;
 	
-	private String currentText;
+	private StringBuilder currentText;
 	private DocumentInCollection currentDoc;
 	
 	public DocumentCollectionParser() {
-		this.docs = new LinkedList<DocumentInCollection>();
+		this.corpus = new CorpusStore();
+		this.queue = null;
+		this.currentText = new StringBuilder();
 		
 		this.item = false;
 		this.title = false;
@@ -46,8 +70,7 @@ public class DocumentCollectionParser extends DefaultHandler {
 	// parses the document collection in the given URI
 	public void parse(String uri) {
 		try {
-			SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
-			parser.parse(uri, this);
+			read(uri);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (SAXException e) {
@@ -57,16 +80,87 @@ public class DocumentCollectionParser extends DefaultHandler {
 		}
 	}
 	
-	// returns the documents of the collection as a list
+	private void read(String uri) throws ParserConfigurationException, SAXException, IOException {
+		SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+		parser.parse(uri, this);
+	}
+	
+	// parses the document collection in the given file like parse(uri), but memory-maps the file and parses
+	// chunks of items in parallel on the given pool, see ChunkedCollectionParser
+	public void parse(File file, ForkJoinPool pool) {
+		try {
+			ChunkedCollectionParser.parse(file, pool, this.corpus);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// parses the document collection in the given URI on a separate thread and passes each document
+	// to the handler on the calling thread as soon as its item is complete. At most capacity documents
+	// are buffered in between, so the collection is never held in memory as a whole.
+	// If the collection cannot be parsed to the end, an IOException is thrown after the documents
+	// parsed before the error have been passed to the handler.
+	public void parse(final String uri, Handler handler, int capacity) throws IOException {
+		this.queue = new ArrayBlockingQueue<Object>(capacity);
+		this.aborted = false;
+		
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				Object last = END;
+				try {
+					read(uri);
+				} catch (Exception e) {
+					last = new Failure(e);
+				} finally {
+					try {
+						if (!aborted)
+							queue.put(last);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "DocumentCollectionParser");
+		producer.setDaemon(true);
+		producer.start();
+		
+		boolean completed = false;
+		try {
+			Object next;
+			while ((next = queue.take()) != END) {
+				if (next instanceof Failure)
+					throw new IOException("Parsing " + uri + " failed", ((Failure) next).exception);
+				handler.document((DocumentInCollection) next);
+			}
+			completed = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} finally {
+			if (!completed) {
+				// stop the parser if the handler failed, it may be blocked on the full queue
+				this.aborted = true;
+				producer.interrupt();
+				queue.clear();
+			}
+		}
+	}
+	
+	// returns the documents of the collection as a list of views of the corpus store
 	public List<DocumentInCollection> getDocuments() {
-		return this.docs;
+		return this.corpus.getDocuments();
+	}
+	
+	// returns the parsed collection in columnar form
+	public CorpusStore getCorpus() {
+		return this.corpus;
 	}
 	
 	
 	// methods for the SAX parser below
 	
 	public void startElement(String uri, String localName, String qName, Attributes attributes) {
-		this.currentText = "";
+		this.currentText.setLength(0);
 		if (qName.equals("item")) {
 			this.item = true;
 			this.currentDoc = new DocumentInCollection();
@@ -83,41 +177,49 @@ public class DocumentCollectionParser extends DefaultHandler {
 			this.relevance = true;
 	}
 	
-	public void endElement(String uri, String localName, String qName)  {
-		this.currentText = this.currentText.trim();
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		String text = this.currentText.toString().trim();
 		if (qName.equals("item")) {
 			this.item = false;
-			if (this.currentDoc.getTitle() != null)
-				docs.add(this.currentDoc);
+			if (this.currentDoc.getTitle() != null) {
+				if (this.queue != null) {
+					if (this.aborted)
+						throw new SAXException("Parsing aborted");
+					try {
+						this.queue.put(this.currentDoc);
+					} catch (InterruptedException e) {
+						throw new SAXException("Parsing interrupted", e);
+					}
+				}
+				else
+					corpus.add(this.currentDoc);
+			}
 		}
 		else if (qName.equals("title")) {
-			this.currentDoc.setTitle(this.currentText);
+			this.currentDoc.setTitle(text);
 			this.title = false;
 		}
 		else if (qName.equals("abstract")) {
-			this.currentDoc.setAbstractText(this.currentText);
+			this.currentDoc.setAbstractText(text);
 			this.abstractText = false;
 		}
 		else if (qName.equals("search_task_number")) {
-			this.currentDoc.setSearchTaskNumber(Integer.valueOf(this.currentText));
+			this.currentDoc.setSearchTaskNumber(Integer.valueOf(text));
 			this.searchTaskNumber = false;
 		}
 		else if (qName.equals("query")) {
-			this.currentDoc.setQuery(this.currentText);
+			this.currentDoc.setQuery(text);
 			this.query = false;
 		}
 		else if (qName.equals("relevance")) {
-			if (Integer.valueOf(this.currentText) == 1)
+			if (Integer.valueOf(text) == 1)
 				this.currentDoc.setRelevant(true);
 			this.relevance = false;
 		}
 	}
 	
 	public void characters(char[] ch, int start, int length) {
-		String text = "";
-		for (int i=0; i<length; i++)
-			text += ch[start+i];
-		this.currentText += text;
+		this.currentText.append(ch, start, length);
 	}
 
 }
\ No newline at end of file
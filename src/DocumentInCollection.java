@@ -4,9 +4,16 @@
  * Jouni Tuominen <jouni.tuominen@aalto.fi>
  */
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class DocumentInCollection {
 
-	private static int documentIndex = 0;
+	// ids are handed out in creation order, also when documents are created on several threads
+	private static final AtomicInteger documentIndex = new AtomicInteger(0);
+
+	// set if this document is a view of a row of a CorpusStore, the fields below are unused then
+	private final CorpusStore store;
+	private final int row;
 
     private String title;
 	private String abstractText;
@@ -20,7 +27,9 @@ public class DocumentInCollection {
 	}
 	
 	public DocumentInCollection(String title, String abstractText, int searchTaskNumber, String query, boolean relevant) {
-        this.id = documentIndex++;
+        this.store = null;
+        this.row = -1;
+        this.id = nextId();
 		this.title = title;
 		this.abstractText = abstractText;
 		this.searchTaskNumber = searchTaskNumber;
@@ -28,48 +37,80 @@ public class DocumentInCollection {
 		this.relevant = relevant;
 	}
 	
+	// view of a row of the store, see CorpusStore.getDocuments
+	DocumentInCollection(CorpusStore store, int row) {
+		this.store = store;
+		this.row = row;
+		this.id = store.getId(row);
+	}
+	
+	// returns a new document id
+	static int nextId() {
+		return documentIndex.getAndIncrement();
+	}
+	
+	// reserves count consecutive document ids and returns the first one
+	static int reserveIds(int count) {
+		return documentIndex.getAndAdd(count);
+	}
+	
 	public String getTitle() {
-		return title;
+		return (store != null) ? store.getTitle(row) : title;
 	}
 
 	public void setTitle(String title) {
-		this.title = title;
+		if (store != null)
+			store.setTitle(row, title);
+		else
+			this.title = title;
 	}
 
 	public String getAbstractText() {
-		return abstractText;
+		return (store != null) ? store.getAbstractText(row) : abstractText;
 	}
 
 	public void setAbstractText(String abstractText) {
-		this.abstractText = abstractText;
+		if (store != null)
+			store.setAbstractText(row, abstractText);
+		else
+			this.abstractText = abstractText;
 	}
 
 	public int getSearchTaskNumber() {
-		return searchTaskNumber;
+		return (store != null) ? store.getSearchTaskNumber(row) : searchTaskNumber;
 	}
 
 	public void setSearchTaskNumber(int searchTaskNumber) {
-		this.searchTaskNumber = searchTaskNumber;
+		if (store != null)
+			store.setSearchTaskNumber(row, searchTaskNumber);
+		else
+			this.searchTaskNumber = searchTaskNumber;
 	}
 
 	public String getQuery() {
-		return query;
+		return (store != null) ? store.getQuery(row) : query;
 	}
 
 	public void setQuery(String query) {
-		this.query = query;
+		if (store != null)
+			store.setQuery(row, query);
+		else
+			this.query = query;
 	}
 
 	public boolean isRelevant() {
-		return relevant;
+		return (store != null) ? store.isRelevant(row) : relevant;
 	}
 
 	public void setRelevant(boolean relevant) {
-		this.relevant = relevant;
+		if (store != null)
+			store.setRelevant(row, relevant);
+		else
+			this.relevant = relevant;
 	}
 
 	public String toString() {
-		return "Title: "+title+"\n abstract: "+abstractText+"\n search task number: "+searchTaskNumber+"\n query: "+query+"\n relevant: "+relevant;
+		return "Title: "+getTitle()+"\n abstract: "+getAbstractText()+"\n search task number: "+getSearchTaskNumber()+"\n query: "+getQuery()+"\n relevant: "+isRelevant();
 	}
 
     public int getId() { return id; }
@@ -0,0 +1,332 @@
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Runs every query against every configuration concurrently and evaluates the results against the qrels.
+// The searches share the reader of the engine, so the grid only costs as much wall-clock time as
+// the available cores make it.
+public class ExperimentRunner {
+
+    // A scoring model together with the choice of the stemmed or unstemmed fields. The model is either one of the
+    // similarity types of LuceneSearchApp or, for SimilaritySweep, any similarity under a name.
+    public static class Configuration {
+
+        private final LuceneSearchApp.SimilarityType similarityType;
+        private final String name;
+        private final Similarity similarity;
+        private final boolean stemmed;
+
+        public Configuration(LuceneSearchApp.SimilarityType similarityType, boolean stemmed) {
+            this.similarityType = similarityType;
+            this.name = similarityType.name();
+            this.similarity = null;
+            this.stemmed = stemmed;
+        }
+
+        public Configuration(String name, Similarity similarity, boolean stemmed) {
+            this.similarityType = null;
+            this.name = name;
+            this.similarity = similarity;
+            this.stemmed = stemmed;
+        }
+
+        // null for a configuration with its own similarity
+        public LuceneSearchApp.SimilarityType getSimilarityType() {
+            return similarityType;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // null for a configuration with a similarity type
+        public Similarity getSimilarity() {
+            return similarity;
+        }
+
+        public boolean isStemmed() {
+            return stemmed;
+        }
+
+        public String toString() {
+            return name + (stemmed ? " stemmed" : "");
+        }
+    }
+
+    // Evaluation of one query in one configuration
+    public static class Result {
+
+        private final String query;
+        private final Configuration configuration;
+        private final int totalHits;
+        private final int relevantHits;
+        private final float precision;
+        private final float recall;
+        private final float f1;
+        private final float averagePrecision;
+        private final float precisionAtK;
+        private final float ndcgAtK;
+        private final float[] interpolatedPrecision;
+        private final float prCurveArea;
+
+        public Result(String query, Configuration configuration, int totalHits, int relevantHits, float precision,
+                      float recall, float f1, float averagePrecision, float precisionAtK, float ndcgAtK,
+                      float[] interpolatedPrecision, float prCurveArea) {
+            this.query = query;
+            this.configuration = configuration;
+            this.totalHits = totalHits;
+            this.relevantHits = relevantHits;
+            this.precision = precision;
+            this.recall = recall;
+            this.f1 = f1;
+            this.averagePrecision = averagePrecision;
+            this.precisionAtK = precisionAtK;
+            this.ndcgAtK = ndcgAtK;
+            this.interpolatedPrecision = interpolatedPrecision;
+            this.prCurveArea = prCurveArea;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public Configuration getConfiguration() {
+            return configuration;
+        }
+
+        public int getTotalHits() {
+            return totalHits;
+        }
+
+        public int getRelevantHits() {
+            return relevantHits;
+        }
+
+        public float getPrecision() {
+            return precision;
+        }
+
+        public float getRecall() {
+            return recall;
+        }
+
+        public float getF1() {
+            return f1;
+        }
+
+        public float getAveragePrecision() {
+            return averagePrecision;
+        }
+
+        public float getPrecisionAtK() {
+            return precisionAtK;
+        }
+
+        public float getNdcgAtK() {
+            return ndcgAtK;
+        }
+
+        // 11-point interpolated precision, see PrecisionRecallCurve
+        public float[] getInterpolatedPrecision() {
+            return interpolatedPrecision;
+        }
+
+        public float getPrCurveArea() {
+            return prCurveArea;
+        }
+    }
+
+    private final LuceneSearchApp engine;
+    private final Qrels qrels;
+    private final int searchTaskNumber;
+    private final int k;
+    private final int threads;
+
+    public ExperimentRunner(LuceneSearchApp engine, Qrels qrels, int searchTaskNumber, int k) {
+        this(engine, qrels, searchTaskNumber, k, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ExperimentRunner(LuceneSearchApp engine, Qrels qrels, int searchTaskNumber, int k, int threads) {
+        this.engine = engine;
+        this.qrels = qrels;
+        this.searchTaskNumber = searchTaskNumber;
+        this.k = k;
+        this.threads = threads;
+    }
+
+    // Every similarity type with and without stemming
+    public static List<Configuration> allConfigurations() {
+        List<Configuration> configurations = new ArrayList<Configuration>();
+        for (boolean stemmed : new boolean[] {false, true}) {
+            for (LuceneSearchApp.SimilarityType similarityType : LuceneSearchApp.SimilarityType.values()) {
+                configurations.add(new Configuration(similarityType, stemmed));
+            }
+        }
+        return configurations;
+    }
+
+    // Searches and evaluates all queries in all configurations, results are ordered by query, then configuration.
+    // The configurations must have a similarity type, configurations with their own similarity are run by
+    // SimilaritySweep.
+    public List<Result> run(List<String> queries, List<Configuration> configurations) throws IOException {
+        for (Configuration configuration : configurations) {
+            if (configuration.getSimilarityType() == null) {
+                throw new IllegalArgumentException("No similarity type in configuration " + configuration
+                        + ", run it with SimilaritySweep");
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (final String query : queries) {
+                for (final Configuration configuration : configurations) {
+                    futures.add(pool.submit(new Callable<Result>() {
+                        @Override
+                        public Result call() {
+                            return evaluate(query, configuration);
+                        }
+                    }));
+                }
+            }
+
+            List<Result> results = new ArrayList<Result>();
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private Result evaluate(String query, Configuration configuration) {
+        SearchResults retrieved = engine.search(query, configuration.getSimilarityType(), configuration.isStemmed());
+        long start = System.nanoTime();
+        Result result = evaluate(query, configuration, retrieved.totalHits, retrieved.getIds(),
+                qrels.get(query, searchTaskNumber), k);
+        Metrics.record(Metrics.EVALUATION, configuration.getSimilarityType(), configuration.isStemmed(), start);
+        return result;
+    }
+
+    // Evaluates the ranking of the query given by the collection ids of the retrieved documents
+    static Result evaluate(String query, Configuration configuration, int totalHits, int[] ids,
+                           Qrels.Judgments relevant, int k) {
+        PrecisionRecallCurve curve = new PrecisionRecallCurve(relevant.size(), ids.length);
+
+        int hits = 0;
+        int hitsAtK = 0;
+        float precisionSum = 0;
+        double dcg = 0;
+        for (int i = 0; i < ids.length; i++) {
+            curve.add(relevant.contains(ids[i]));
+            if (relevant.contains(ids[i])) {
+                hits++;
+                precisionSum += ((float) hits) / (i + 1);
+                if (i < k) {
+                    hitsAtK++;
+                    dcg += 1 / log2(i + 2);
+                }
+            }
+        }
+
+        double idcg = 0;
+        for (int i = 0; i < Math.min(k, relevant.size()); i++) {
+            idcg += 1 / log2(i + 2);
+        }
+
+        float precision = (ids.length == 0) ? 0 : ((float) hits) / ids.length;
+        float recall = (relevant.size() == 0) ? 0 : ((float) hits) / relevant.size();
+        float f1 = (precision + recall == 0) ? 0 : (2 * precision * recall) / (precision + recall);
+        float averagePrecision = (relevant.size() == 0) ? 0 : precisionSum / relevant.size();
+        float precisionAtK = ((float) hitsAtK) / k;
+        float ndcgAtK = (idcg == 0) ? 0 : (float) (dcg / idcg);
+
+        return new Result(query, configuration, totalHits, hits, precision, recall, f1, averagePrecision,
+                precisionAtK, ndcgAtK, curve.getInterpolatedPrecision(), curve.getArea());
+    }
+
+    private static String numbers(float[] values) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            json.append(i > 0 ? ", " : "").append(Json.number(values[i]));
+        }
+        return json.append("]").toString();
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    // Writes the results as one JSON document: the evaluation of every run and the MAP of every configuration
+    public void writeReport(List<Result> results, List<Configuration> configurations, String filePath)
+            throws IOException {
+        Writer out = new BufferedWriter(new FileWriter(filePath));
+        try {
+            out.write("{\n  \"k\": " + k + ",\n  \"searchTaskNumber\": " + searchTaskNumber + ",\n");
+
+            out.write("  \"runs\": [\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                out.write("    {\"query\": " + Json.quote(result.getQuery())
+                        + ", \"similarity\": " + Json.quote(result.getConfiguration().getName())
+                        + ", \"stemmed\": " + result.getConfiguration().isStemmed()
+                        + ", \"totalHits\": " + result.getTotalHits()
+                        + ", \"relevantHits\": " + result.getRelevantHits()
+                        + ", \"precision\": " + Json.number(result.getPrecision())
+                        + ", \"recall\": " + Json.number(result.getRecall())
+                        + ", \"f1\": " + Json.number(result.getF1())
+                        + ", \"averagePrecision\": " + Json.number(result.getAveragePrecision())
+                        + ", \"precisionAtK\": " + Json.number(result.getPrecisionAtK())
+                        + ", \"ndcgAtK\": " + Json.number(result.getNdcgAtK())
+                        + ", \"prCurveArea\": " + Json.number(result.getPrCurveArea())
+                        + ", \"interpolatedPrecision\": " + numbers(result.getInterpolatedPrecision())
+                        + "}" + (i < results.size() - 1 ? "," : "") + "\n");
+            }
+            out.write("  ],\n");
+
+            out.write("  \"configurations\": [\n");
+            for (int i = 0; i < configurations.size(); i++) {
+                Configuration configuration = configurations.get(i);
+                float sum = 0;
+                float[] interpolatedSum = new float[PrecisionRecallCurve.LEVELS];
+                int count = 0;
+                for (Result result : results) {
+                    if (result.getConfiguration() == configuration) {
+                        sum += result.getAveragePrecision();
+                        for (int level = 0; level < PrecisionRecallCurve.LEVELS; level++) {
+                            interpolatedSum[level] += result.getInterpolatedPrecision()[level];
+                        }
+                        count++;
+                    }
+                }
+                for (int level = 0; level < PrecisionRecallCurve.LEVELS && count > 0; level++) {
+                    interpolatedSum[level] /= count;
+                }
+                out.write("    {\"similarity\": " + Json.quote(configuration.getName())
+                        + ", \"stemmed\": " + configuration.isStemmed()
+                        + ", \"map\": " + Json.number((count == 0) ? 0 : sum / count)
+                        + ", \"meanInterpolatedPrecision\": " + numbers(interpolatedSum)
+                        + "}" + (i < configurations.size() - 1 ? "," : "") + "\n");
+            }
+            out.write("  ]\n}\n");
+        }
+        finally {
+            out.close();
+        }
+    }
+}
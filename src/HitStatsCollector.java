@@ -0,0 +1,87 @@
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+
+import java.io.IOException;
+
+// Aggregates a search in one pass without ranking it: the number of hits, the maximum, minimum and mean score
+// and, if judgments are given, how many hits are relevant. Nothing is kept per hit, so collecting costs little
+// more than iterating the postings, for callers that only need the summary of a search, see
+// LuceneSearchApp.searchStats.
+public class HitStatsCollector extends Collector {
+
+    private final Qrels.Judgments relevant;
+
+    private int totalHits;
+    private int relevantHits;
+    private float maxScore;
+    private float minScore;
+    private double scoreSum;
+
+    private Scorer scorer;
+    private NumericDocValues ids;
+
+    // relevant may be null if the relevant hits need not be counted
+    public HitStatsCollector(Qrels.Judgments relevant) {
+        this.relevant = relevant;
+        this.totalHits = 0;
+        this.relevantHits = 0;
+        this.maxScore = Float.NEGATIVE_INFINITY;
+        this.minScore = Float.POSITIVE_INFINITY;
+        this.scoreSum = 0;
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    // 0 if no judgments were given
+    public int getRelevantHits() {
+        return relevantHits;
+    }
+
+    // NaN if nothing matched, like TopDocs.getMaxScore
+    public float getMaxScore() {
+        return (totalHits == 0) ? Float.NaN : maxScore;
+    }
+
+    public float getMinScore() {
+        return (totalHits == 0) ? Float.NaN : minScore;
+    }
+
+    public float getMeanScore() {
+        return (totalHits == 0) ? Float.NaN : (float) (scoreSum / totalHits);
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) {
+        this.scorer = scorer;
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        float score = scorer.score();
+        totalHits++;
+        scoreSum += score;
+        if (score > maxScore) {
+            maxScore = score;
+        }
+        if (score < minScore) {
+            minScore = score;
+        }
+        if (ids != null && relevant.contains((int) ids.get(doc))) {
+            relevantHits++;
+        }
+    }
+
+    @Override
+    public void setNextReader(AtomicReaderContext context) throws IOException {
+        this.ids = (relevant == null) ? null : context.reader().getNumericDocValues("id");
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        return true;
+    }
+}
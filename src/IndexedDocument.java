@@ -0,0 +1,87 @@
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.TextField;
+
+// Reusable Lucene document for a DocumentInCollection.
+// The fields are created once and only their values are replaced, so one instance per indexing
+// thread avoids allocating a Document and its Fields for every indexed item.
+// The title and abstract are stored once but indexed twice: as is and, under the stemmed field
+// names, with the stemming analyzer (see LuceneSearchApp).
+public class IndexedDocument {
+
+    public static final String TITLE = "title";
+    public static final String ABSTRACT = "abstract";
+
+    private static final String STEMMED_SUFFIX = "_stemmed";
+
+    private final Document document;
+
+    private final Field title;
+    private final Field abstractText;
+    private final Field stemmedTitle;
+    private final Field stemmedAbstractText;
+    private final Field searchTaskNumber;
+    private final Field query;
+    private final Field relevant;
+    private final Field id;
+
+    // Column-stride copies of the numeric fields, read by the evaluation without loading stored fields
+    private final Field searchTaskNumberValue;
+    private final Field relevantValue;
+    private final Field idValue;
+
+    public IndexedDocument() {
+        this.title = new TextField(TITLE, "", Field.Store.YES);
+        this.abstractText = new TextField(ABSTRACT, "", Field.Store.YES);
+        this.stemmedTitle = new TextField(field(TITLE, true), "", Field.Store.NO);
+        this.stemmedAbstractText = new TextField(field(ABSTRACT, true), "", Field.Store.NO);
+        this.searchTaskNumber = new IntField("searchTaskNumber", 0, Field.Store.YES);
+        this.query = new TextField("query", "", Field.Store.YES);
+        this.relevant = new IntField("relevant", 0, Field.Store.YES);
+        this.id = new IntField("id", 0, Field.Store.YES);
+        this.searchTaskNumberValue = new NumericDocValuesField("searchTaskNumber", 0);
+        this.relevantValue = new NumericDocValuesField("relevant", 0);
+        this.idValue = new NumericDocValuesField("id", 0);
+
+        this.document = new Document();
+        document.add(title);
+        document.add(abstractText);
+        document.add(stemmedTitle);
+        document.add(stemmedAbstractText);
+        document.add(searchTaskNumber);
+        document.add(query);
+        document.add(relevant);
+        document.add(id);
+        document.add(searchTaskNumberValue);
+        document.add(relevantValue);
+        document.add(idValue);
+    }
+
+    // Returns the name of the stemmed or the unstemmed variant of the title or abstract field
+    public static String field(String name, boolean stemmed) {
+        return stemmed ? name + STEMMED_SUFFIX : name;
+    }
+
+    // Replaces the field values with the ones of the given document and returns the Lucene document
+    public Document set(DocumentInCollection doc) {
+        return set(doc, doc.getId());
+    }
+
+    // Same as set(doc), but the document is indexed under the given id, e.g. to replace an indexed document
+    public Document set(DocumentInCollection doc, int id) {
+        title.setStringValue(doc.getTitle());
+        abstractText.setStringValue(doc.getAbstractText());
+        stemmedTitle.setStringValue(doc.getTitle());
+        stemmedAbstractText.setStringValue(doc.getAbstractText());
+        searchTaskNumber.setIntValue(doc.getSearchTaskNumber());
+        query.setStringValue(doc.getQuery());
+        relevant.setIntValue(doc.isRelevant() ? 1 : 0);
+        this.id.setIntValue(id);
+        searchTaskNumberValue.setLongValue(doc.getSearchTaskNumber());
+        relevantValue.setLongValue(doc.isRelevant() ? 1 : 0);
+        idValue.setLongValue(id);
+        return document;
+    }
+}
@@ -0,0 +1,55 @@
+// Minimal helpers for writing JSON output by hand
+public final class Json {
+
+    private Json() {
+
+    }
+
+    // Returns the string as a quoted JSON string literal
+    public static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+
+        StringBuilder quoted = new StringBuilder(value.length() + 2);
+        quoted.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        quoted.append('"');
+        return quoted.toString();
+    }
+
+    // Returns the number as a JSON number, NaN and infinities are not valid JSON and become null
+    public static String number(double value) {
+        return (Double.isNaN(value) || Double.isInfinite(value)) ? "null" : String.valueOf(value);
+    }
+
+    public static String number(float value) {
+        return (Float.isNaN(value) || Float.isInfinite(value)) ? "null" : String.valueOf(value);
+    }
+}
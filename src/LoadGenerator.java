@@ -0,0 +1,287 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Replays a list of queries against a shared LuceneSearchApp under sustained load, for capacity planning.
+// The requests cycle through the queries and the similarity types, and their latencies are recorded per
+// similarity type.
+// At a target rate the load is open-loop: request i is due at start + i / qps whether or not the earlier ones
+// have completed, and its latency is measured from that due time. A search that falls behind therefore shows
+// up as queueing delay in the latency of every request waiting behind it, instead of silently lowering the
+// rate as a closed loop would (coordinated omission). At a concurrency level the load is closed-loop: every
+// client sends its next request as soon as the previous one completes, and latency is the service time.
+public class LoadGenerator {
+
+    // Latencies and failures of the requests per similarity type, the latencies include the failed requests
+    public static class Report {
+
+        private final Map<LuceneSearchApp.SimilarityType, LatencyHistogram> latencies;
+        private final Map<LuceneSearchApp.SimilarityType, AtomicInteger> failures;
+        private long elapsedNanos;
+
+        private Report(LuceneSearchApp.SimilarityType[] similarityTypes) {
+            this.latencies = new EnumMap<LuceneSearchApp.SimilarityType, LatencyHistogram>(
+                    LuceneSearchApp.SimilarityType.class);
+            this.failures = new EnumMap<LuceneSearchApp.SimilarityType, AtomicInteger>(
+                    LuceneSearchApp.SimilarityType.class);
+            for (LuceneSearchApp.SimilarityType similarityType : similarityTypes) {
+                latencies.put(similarityType, new LatencyHistogram());
+                failures.put(similarityType, new AtomicInteger(0));
+            }
+            this.elapsedNanos = 0;
+        }
+
+        public LatencyHistogram getLatencies(LuceneSearchApp.SimilarityType similarityType) {
+            return latencies.get(similarityType);
+        }
+
+        public int getFailures(LuceneSearchApp.SimilarityType similarityType) {
+            return failures.get(similarityType).get();
+        }
+
+        // Completed requests per second of the whole run
+        public double getThroughput(LuceneSearchApp.SimilarityType similarityType) {
+            return (elapsedNanos == 0) ? 0 : latencies.get(similarityType).getCount() * 1e9 / elapsedNanos;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        // One line per similarity type: requests, failures, throughput and latency percentiles in milliseconds
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format(Locale.ROOT, "%-26s %8s %8s %10s %9s %9s %9s %9s%n", "similarity",
+                    "requests", "failures", "qps", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+            for (Map.Entry<LuceneSearchApp.SimilarityType, LatencyHistogram> entry : latencies.entrySet()) {
+                LatencyHistogram histogram = entry.getValue();
+                report.append(String.format(Locale.ROOT, "%-26s %8d %8d %10.1f %9.3f %9.3f %9.3f %9.3f%n",
+                        entry.getKey(), histogram.getCount(), failures.get(entry.getKey()).get(),
+                        getThroughput(entry.getKey()), histogram.getPercentile(0.50) / 1e6,
+                        histogram.getPercentile(0.95) / 1e6, histogram.getPercentile(0.99) / 1e6,
+                        histogram.getMax() / 1e6));
+            }
+            return report.toString();
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder("{\"elapsedSeconds\": ").append(Json.number(elapsedNanos / 1e9))
+                    .append(", \"similarities\": [");
+            boolean first = true;
+            for (Map.Entry<LuceneSearchApp.SimilarityType, LatencyHistogram> entry : latencies.entrySet()) {
+                LatencyHistogram histogram = entry.getValue();
+                json.append(first ? "" : ", ")
+                        .append("{\"similarity\": ").append(Json.quote(entry.getKey().name()))
+                        .append(", \"requests\": ").append(histogram.getCount())
+                        .append(", \"failures\": ").append(failures.get(entry.getKey()).get())
+                        .append(", \"qps\": ").append(Json.number(getThroughput(entry.getKey())))
+                        .append(", \"p50Millis\": ").append(Json.number(histogram.getPercentile(0.50) / 1e6))
+                        .append(", \"p95Millis\": ").append(Json.number(histogram.getPercentile(0.95) / 1e6))
+                        .append(", \"p99Millis\": ").append(Json.number(histogram.getPercentile(0.99) / 1e6))
+                        .append(", \"maxMillis\": ").append(Json.number(histogram.getMax() / 1e6))
+                        .append("}");
+                first = false;
+            }
+            return json.append("]}").toString();
+        }
+    }
+
+    private final LuceneSearchApp engine;
+    private final List<String> queries;
+    private final LuceneSearchApp.SimilarityType[] similarityTypes;
+    private final boolean stemmed;
+    private final int k;
+
+    public LoadGenerator(LuceneSearchApp engine, List<String> queries, LuceneSearchApp.SimilarityType[] similarityTypes,
+                         boolean stemmed, int k) {
+        if (queries.isEmpty() || similarityTypes.length == 0) {
+            throw new IllegalArgumentException("No queries or similarity types to replay");
+        }
+        this.engine = engine;
+        this.queries = new ArrayList<String>(queries);
+        this.similarityTypes = similarityTypes.clone();
+        this.stemmed = stemmed;
+        this.k = k;
+    }
+
+    // Reads one query per line, skipping blank lines
+    public static List<String> readQueries(String filePath) throws IOException {
+        List<String> queries = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new FileReader(filePath));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    queries.add(line.trim());
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+        return queries;
+    }
+
+    // The distinct queries of the collection, from the query dictionary of the corpus store
+    public static List<String> corpusQueries(CorpusStore corpus) {
+        List<String> queries = new ArrayList<String>();
+        for (int code = 0; code < corpus.getQueryCount(); code++) {
+            String query = corpus.decodeQuery(code);
+            if (query != null && !query.trim().isEmpty()) {
+                queries.add(query);
+            }
+        }
+        return queries;
+    }
+
+    // Request i searches every similarity type in turn before moving on to the next query
+    private LuceneSearchApp.SimilarityType similarityType(long request) {
+        return similarityTypes[(int) (request % similarityTypes.length)];
+    }
+
+    private String query(long request) {
+        return queries.get((int) ((request / similarityTypes.length) % queries.size()));
+    }
+
+    // Runs the request and records its latency from the given start, which is its due time under open-loop load.
+    // Failed requests are counted and their latency is recorded too, a search that fails slowly still held a thread.
+    private void execute(long request, long startNanos, Report report) {
+        LuceneSearchApp.SimilarityType similarityType = similarityType(request);
+        boolean failed;
+        try {
+            failed = engine.search(query(request), similarityType, stemmed, k) == null;
+        }
+        catch (RuntimeException e) {
+            failed = true;
+        }
+        report.latencies.get(similarityType).record(System.nanoTime() - startNanos);
+        if (failed) {
+            report.failures.get(similarityType).incrementAndGet();
+        }
+    }
+
+    // Sends qps requests per second for the given duration, served by up to maxInFlight threads, and waits for
+    // the last of them. Requests that find every thread busy wait in the queue, and that wait counts as latency.
+    public Report runAtRate(double qps, long durationSeconds, int maxInFlight) throws InterruptedException {
+        final Report report = new Report(similarityTypes);
+        ExecutorService workers = Executors.newFixedThreadPool(maxInFlight, daemonThreads("Load worker"));
+        final AtomicLong lastCompletion = new AtomicLong(0);
+
+        long requests = (long) (qps * durationSeconds);
+        long start = System.nanoTime();
+        try {
+            for (long i = 0; i < requests; i++) {
+                final long request = i;
+                final long due = start + (long) (i * 1e9 / qps);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(request, due, report);
+                        long now = System.nanoTime();
+                        long last;
+                        while ((last = lastCompletion.get()) < now && !lastCompletion.compareAndSet(last, now)) {
+                            // retry until the latest completion is recorded
+                        }
+                    }
+                });
+            }
+        }
+        finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        report.elapsedNanos = Math.max(lastCompletion.get(), start) - start;
+        return report;
+    }
+
+    // Runs the given number of clients for the given duration, each sending its next request as soon as the
+    // previous one completes
+    public Report runAtConcurrency(int concurrency, long durationSeconds) throws InterruptedException {
+        final Report report = new Report(similarityTypes);
+        final AtomicLong next = new AtomicLong(0);
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency, daemonThreads("Load client"));
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                clients.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long now;
+                        while ((now = System.nanoTime()) < end) {
+                            execute(next.getAndIncrement(), now, report);
+                        }
+                    }
+                });
+            }
+        }
+        finally {
+            clients.shutdown();
+            clients.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    // Usage: LoadGenerator <corpus> <qps|concurrency> <rate or clients> [seconds] [queryFile] [k]
+    public static void main(String[] args) {
+        if (args.length < 3 || !(args[1].equals("qps") || args[1].equals("concurrency"))) {
+            System.out.println("ERROR: usage: LoadGenerator <corpus> <qps|concurrency> <rate or clients> [seconds]"
+                    + " [queryFile] [k]");
+            return;
+        }
+        long seconds = (args.length > 3) ? Long.parseLong(args[3]) : 30;
+        int k = (args.length > 5) ? Integer.parseInt(args[5]) : 10;
+
+        DocumentCollectionParser parser = new DocumentCollectionParser();
+        parser.parse(args[0]);
+        LuceneSearchApp engine = new LuceneSearchApp();
+        engine.index(parser.getDocuments());
+
+        try {
+            List<String> queries = (args.length > 4) ? readQueries(args[4]) : corpusQueries(parser.getCorpus());
+            LoadGenerator generator = new LoadGenerator(engine, queries, LuceneSearchApp.SimilarityType.values(),
+                    false, k);
+
+            // Warm up the JIT and the per-segment caches before measuring
+            generator.runAtConcurrency(Runtime.getRuntime().availableProcessors(), Math.min(5, seconds));
+
+            Report report = args[1].equals("qps")
+                    ? generator.runAtRate(Double.parseDouble(args[2]), seconds, 256)
+                    : generator.runAtConcurrency(Integer.parseInt(args[2]), seconds);
+            System.out.println("Replayed " + queries.size() + " queries for " + seconds + " s at " + args[1] + " "
+                    + args[2]);
+            System.out.print(report);
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while reading the queries : " + e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            engine.close();
+        }
+    }
+}
@@ -1,34 +1,56 @@
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
 import org.apache.lucene.util.Version;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.analysis.Analyzer;
-import org.tartarus.snowball.ext.PorterStemmer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.*;
+import java.util.concurrent.*;
 
 
 public class LuceneSearchApp {
 
     private Directory directory;
-
-    private static void addDoc(IndexWriter writer, DocumentInCollection document) throws IOException {
-        Document doc = new Document();
-        doc.add(new TextField("title", document.getTitle(), Field.Store.YES));
-        doc.add(new TextField("abstract", document.getAbstractText(), Field.Store.YES));
-        doc.add(new IntField("searchTaskNumber", document.getSearchTaskNumber(), Field.Store.YES));
-        doc.add(new TextField("query", document.getQuery(), Field.Store.YES));
-        doc.add(new IntField("relevant", document.isRelevant() ? 1 : 0, Field.Store.YES));
-        doc.add(new IntField("id", document.getId(), Field.Store.YES));
-
-        writer.addDocument(doc);
+    // Replaced while searches run, see replaceSearcherManager
+    private volatile ReferenceManager<IndexSearcher> searcherManager;
+    private QueryResultCache queryCache;
+    private StoredFieldFetcher titleFetcher = new StoredFieldFetcher(new String[] {IndexedDocument.TITLE}, 0);
+
+    // Shard directories of a sharded index, see index(docs, shards), and the threads searching them in parallel
+    private Directory[] shards;
+    private ExecutorService searchExecutor;
+
+    // Long-lived writer for incremental changes and the thread refreshing and committing it, see openWriter
+    private IndexWriter writer;
+    private ScheduledExecutorService writerMaintenance;
+
+    // Analyzers used both at index and at query time, they reuse their token streams per thread.
+    // The stemmed variants of the title and abstract fields go through the stemming analyzer.
+    private final Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_42);
+    private final Analyzer stemmedAnalyzer = new PorterStemmerAnalyzer();
+    private final Analyzer indexAnalyzer = newIndexAnalyzer(analyzer, stemmedAnalyzer);
+
+    private static Analyzer newIndexAnalyzer(Analyzer analyzer, Analyzer stemmedAnalyzer) {
+        Map<String, Analyzer> fieldAnalyzers = new HashMap<String, Analyzer>();
+        fieldAnalyzers.put(IndexedDocument.field(IndexedDocument.TITLE, true), stemmedAnalyzer);
+        fieldAnalyzers.put(IndexedDocument.field(IndexedDocument.ABSTRACT, true), stemmedAnalyzer);
+        return new PerFieldAnalyzerWrapper(analyzer, fieldAnalyzers);
     }
 
     private static void parseTermQuery(String field, List<String> terms, BooleanQuery masterQuery,
@@ -41,78 +63,607 @@ public class LuceneSearchApp {
 
     public enum SimilarityType {
         VSM_SIMILARITY,
-        BM25_SIMILARITY
+        BM25_SIMILARITY,
+        VSM_SUBLINEAR_SIMILARITY
     }
 
 
+    // Commit user data keys used to tell whether a persistent index is up to date with its corpus
+    private static final String CORPUS_LENGTH = "corpus.length";
+    private static final String CORPUS_LAST_MODIFIED = "corpus.lastModified";
+    private static final String FORMAT = "index.format";
+
+    // Bumped whenever the indexed fields change, so older persistent indices get rebuilt
+    private static final String INDEX_FORMAT = "3";
+
+
     public LuceneSearchApp() {
 
     }
 
-    public void index(List<DocumentInCollection> docs, boolean stemmed) {
+    // Indexes the documents into memory, searchable both with and without stemming
+    public void index(List<DocumentInCollection> docs) {
         this.directory = new RAMDirectory();
-        Analyzer analyzer = stemmed ? new PorterStemmerAnalyzer() : new StandardAnalyzer(Version.LUCENE_42);
-        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_42, analyzer);
+        this.shards = null;
+
+        try {
+            writeIndex(docs, null, null);
+            openSearcherManager();
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while creating the index : " + e.getCause());
+        }
+    }
+
+    // Same as index(docs), but the documents are added concurrently by the given bulk indexer
+    public void index(List<DocumentInCollection> docs, BulkIndexer bulkIndexer) {
+        this.directory = new RAMDirectory();
+        this.shards = null;
+
+        try {
+            writeIndex(docs, null, bulkIndexer);
+            openSearcherManager();
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while creating the index : " + e.getCause());
+        }
+    }
 
+    // Parses the collection in the given URI and indexes each document as soon as it is parsed,
+    // without building the list of documents first. At most queueCapacity parsed documents wait for the writer.
+    // The new index only replaces the current one once the whole collection has been parsed.
+    public void index(String uri, int queueCapacity) {
         try {
-            IndexWriter writer = new IndexWriter(directory, config);
-            for (DocumentInCollection document : docs) {
-                addDoc(writer, document);
+            long start = System.nanoTime();
+            Directory built = new RAMDirectory();
+            final IndexWriter writer = new IndexWriter(built, newConfig(null));
+            final IndexedDocument document = new IndexedDocument();
+            boolean parsed = false;
+            try {
+                new DocumentCollectionParser().parse(uri, new DocumentCollectionParser.Handler() {
+                    @Override
+                    public void document(DocumentInCollection doc) throws IOException {
+                        writer.addDocument(document.set(doc));
+                        Metrics.increment("indexing.documents", 1);
+                    }
+                }, queueCapacity);
+                parsed = true;
             }
-            writer.close();
+            finally {
+                if (parsed) {
+                    writer.close();
+                }
+                else {
+                    writer.rollback();
+                }
+            }
+            Metrics.record(Metrics.INDEXING, start);
+
+            this.directory = built;
+            this.shards = null;
+            openSearcherManager();
         }
         catch (IOException e) {
             System.out.println("Caught IOException while creating the index : " + e.getCause());
         }
     }
 
-    public List<String> stemWords(List<String> words) {
-        PorterStemmer stemmer = new PorterStemmer();
-        List<String> stemmed = new ArrayList<String>();
-        for(String word : words){
-            stemmer.setCurrent(word);
-            stemmer.stem();
-            stemmed.add(stemmer.getCurrent());
+    // Opens a persistent memory-mapped index in indexPath, keeping the postings off the Java heap.
+    // The index is only rebuilt from docs if the corpus file has changed since it was last committed.
+    // Returns true if the index was rebuilt.
+    public boolean index(List<DocumentInCollection> docs, File indexPath, File corpus) {
+        try {
+            this.directory = new MMapDirectory(indexPath);
+            this.shards = null;
+
+            Map<String, String> stamp = new HashMap<String, String>();
+            stamp.put(CORPUS_LENGTH, String.valueOf(corpus.length()));
+            stamp.put(CORPUS_LAST_MODIFIED, String.valueOf(corpus.lastModified()));
+            stamp.put(FORMAT, INDEX_FORMAT);
+
+            if (isIndexCurrent(stamp)) {
+                System.out.println("Reusing the index in " + indexPath);
+                openSearcherManager();
+                return false;
+            }
+
+            System.out.println("Building the index in " + indexPath);
+            writeIndex(docs, stamp, null);
+            openSearcherManager();
+            return true;
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while creating the index : " + e.getCause());
+        }
+        return false;
+    }
+
+    // Partitions the documents by id over the given number of in-memory shards and indexes the shards in parallel.
+    // Searches run on all shards at the same time and merge their top hits into one ranking. The shards are
+    // searched as one collection, so the scores are the same as with index(docs), only the order of equally
+    // scored documents can differ.
+    public void index(List<DocumentInCollection> docs, int shardCount) {
+        List<List<DocumentInCollection>> partitions = new ArrayList<List<DocumentInCollection>>();
+        Directory[] shardDirectories = new Directory[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            partitions.add(new ArrayList<DocumentInCollection>());
+            shardDirectories[i] = new RAMDirectory();
+        }
+        for (DocumentInCollection doc : docs) {
+            partitions.get(shard(doc.getId(), shardCount)).add(doc);
+        }
+
+        if (searchExecutor == null) {
+            searchExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    daemonThreads("Shard search"));
+        }
+
+        long start = System.nanoTime();
+        try {
+            List<Future<Void>> builds = new ArrayList<Future<Void>>();
+            for (int i = 0; i < shardCount; i++) {
+                final Directory shardDirectory = shardDirectories[i];
+                final List<DocumentInCollection> partition = partitions.get(i);
+                builds.add(searchExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        IndexWriter writer = new IndexWriter(shardDirectory, newConfig(null));
+                        try {
+                            IndexedDocument document = new IndexedDocument();
+                            for (DocumentInCollection doc : partition) {
+                                writer.addDocument(document.set(doc));
+                            }
+                        }
+                        finally {
+                            writer.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> build : builds) {
+                build.get();
+            }
+            Metrics.record(Metrics.INDEXING, start);
+            Metrics.increment("indexing.documents", docs.size());
+
+            this.directory = null;
+            this.shards = shardDirectories;
+            openSearcherManager();
+        }
+        catch (ExecutionException e) {
+            System.out.println("Caught IOException while creating the index : " + e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while creating the index : " + e.getCause());
+        }
+    }
+
+    // Spreads consecutive ids as well as ids sharing low bits evenly over the shards
+    private static int shard(int id, int shardCount) {
+        int hash = id * 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shardCount;
+    }
+
+    // Background threads must not keep the JVM alive after main returns
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    // Replaces the searcher manager with one over the current directory or shards
+    private void openSearcherManager() throws IOException {
+        replaceSearcherManager((shards != null) ? new ShardedSearcherManager(shards, newSearcherFactory())
+                : new SearcherManager(directory, newSearcherFactory()));
+    }
+
+    // Publishes the new searcher manager before closing the old one, so concurrent searches either acquire from
+    // the new one or retry, see acquireSearcher. Searchers already acquired stay open until they are released.
+    private void replaceSearcherManager(ReferenceManager<IndexSearcher> next) throws IOException {
+        ReferenceManager<IndexSearcher> previous = searcherManager;
+        searcherManager = next;
+        if (queryCache != null) {
+            queryCache.clear();
+        }
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    // Returns the current searcher, which keeps its reader open until it is passed to releaseSearcher.
+    // For callers that run many searches on one point-in-time view of the index, like SimilaritySweep.
+    public IndexSearcher acquireSearcher() throws IOException {
+        while (true) {
+            ReferenceManager<IndexSearcher> manager = searcherManager;
+            try {
+                return manager.acquire();
+            }
+            catch (AlreadyClosedException e) {
+                // The manager was replaced and closed since it was read, retry with the new one
+                if (manager == searcherManager) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Releases the reader of the searcher directly, the manager it came from may have been replaced meanwhile
+    public void releaseSearcher(IndexSearcher searcher) throws IOException {
+        searcher.getIndexReader().decRef();
+    }
+
+    // Caches up to maxEntries search results, see QueryResultCache
+    public void enableQueryCache(int maxEntries) {
+        this.queryCache = new QueryResultCache(maxEntries);
+    }
+
+    // Returns the query result cache, null if it is not enabled
+    public QueryResultCache getQueryCache() {
+        return queryCache;
+    }
+
+    // Keeps the titles of up to maxEntries recently rendered documents in memory, see StoredFieldFetcher
+    public void enableTitleCache(int maxEntries) {
+        this.titleFetcher = new StoredFieldFetcher(new String[] {IndexedDocument.TITLE}, maxEntries);
+    }
+
+    public StoredFieldFetcher getTitleFetcher() {
+        return titleFetcher;
+    }
+
+    // Reopens the shared searcher if the index has changed since it was last opened
+    public void refresh() {
+        try {
+            searcherManager.maybeRefresh();
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while refreshing the searcher : " + e.getCause());
+        }
+    }
+
+    // Releases the writer, the shared searcher and the analyzers, must be called once the engine is no longer used
+    public void close() {
+        closeWriter();
+        try {
+            ReferenceManager<IndexSearcher> manager = searcherManager;
+            searcherManager = null;
+            if (manager != null) {
+                manager.close();
+            }
+            indexAnalyzer.close();
+            analyzer.close();
+            stemmedAnalyzer.close();
+            if (searchExecutor != null) {
+                searchExecutor.shutdown();
+                searchExecutor = null;
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while closing the searcher : " + e.getCause());
         }
-        System.out.println(stemmed);
-        return stemmed;
     }
 
-    public TopDocs search(String query, SimilarityType similarityType, boolean stemmed) {
+    // Opens a long-lived writer on the current index for addDocuments, updateDocument and deleteDocument.
+    // Searches switch to near-real-time readers of the writer that are refreshed in the background, so changes
+    // become searchable within maxRefreshDelayMillis without a commit. Commits happen every commitIntervalMillis
+    // on a background thread. Merges run on lower priority threads and merged segments are warmed before
+    // searchers see them, so neither stalls queries.
+    public void openWriter(long maxRefreshDelayMillis, long commitIntervalMillis) {
+        if (shards != null) {
+            throw new IllegalStateException("A sharded index cannot be updated");
+        }
+
+        try {
+            IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_42, indexAnalyzer);
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+
+            ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+            mergeScheduler.setMergeThreadPriority(Thread.NORM_PRIORITY - 1);
+            config.setMergeScheduler(mergeScheduler);
+            config.setMergedSegmentWarmer(new IndexWriter.IndexReaderWarmer() {
+                @Override
+                public void warm(AtomicReader reader) throws IOException {
+                    reader.getNumericDocValues("id");
+                    warmImpacts(reader);
+                }
+            });
 
-        printQuery(query);
+            this.writer = new IndexWriter(directory, config);
+            replaceSearcherManager(new SearcherManager(writer, true, newSearcherFactory()));
 
-        TopDocs results = null;
-        List<String> queryTermList = stemmed ? stemWords(Arrays.asList(query.split(" "))) : Arrays.asList(query.split(" "));
+            writerMaintenance = Executors.newScheduledThreadPool(2, daemonThreads("Index maintenance"));
+            writerMaintenance.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            }, maxRefreshDelayMillis, maxRefreshDelayMillis, TimeUnit.MILLISECONDS);
+            writerMaintenance.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    commit();
+                }
+            }, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while opening the index writer : " + e.getCause());
+        }
+    }
+
+    // Adds the documents to the index, they become searchable with the next refresh
+    public void addDocuments(List<DocumentInCollection> docs) {
+        try {
+            IndexedDocument document = new IndexedDocument();
+            for (DocumentInCollection doc : docs) {
+                writer.addDocument(document.set(doc));
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while adding documents : " + e.getCause());
+        }
+    }
+
+    // Replaces the indexed document with the given id by doc, which keeps that id
+    public void updateDocument(int id, DocumentInCollection doc) {
+        try {
+            writer.updateDocument(idTerm(id), new IndexedDocument().set(doc, id));
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while updating document " + id + " : " + e.getCause());
+        }
+    }
+
+    public void deleteDocument(int id) {
+        try {
+            writer.deleteDocuments(idTerm(id));
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while deleting document " + id + " : " + e.getCause());
+        }
+    }
+
+    // Makes the changes so far durable
+    public void commit() {
+        try {
+            writer.commit();
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while committing the index : " + e.getCause());
+        }
+    }
+
+    // Commits and closes the writer opened by openWriter, searches continue on the committed index
+    public void closeWriter() {
+        if (writer == null) {
+            return;
+        }
 
         try {
-            // Open the directory and create a searcher to search the index
-            DirectoryReader reader = DirectoryReader.open(directory);
-            IndexSearcher searcher = new IndexSearcher(reader);
+            writerMaintenance.shutdown();
+            writerMaintenance.awaitTermination(1, TimeUnit.MINUTES);
+            writer.close();
+            writer = null;
+            openSearcherManager();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while closing the index writer : " + e.getCause());
+        }
+    }
 
-            // Set the searcher to use a specific similarity type
-            switch (similarityType) {
-                case VSM_SIMILARITY:
-                    searcher.setSimilarity(new DefaultSimilarity());
-                    break;
-                case BM25_SIMILARITY:
-                    searcher.setSimilarity(new BM25Similarity());
-                    break;
-                default:
-                    break;
+    // Computes the score bounds used by MaxScoreDisjunction for the segments of every new searcher,
+    // before the searcher is handed out. Segments that were already warmed are skipped.
+    private static SearcherFactory newSearcherFactory() {
+        return new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader) throws IOException {
+                for (AtomicReaderContext context : reader.leaves()) {
+                    warmImpacts(context.reader());
+                }
+                return new IndexSearcher(reader);
             }
+        };
+    }
+
+    private static void warmImpacts(AtomicReader reader) throws IOException {
+        for (boolean stemmed : new boolean[] {false, true}) {
+            TermImpacts.warm(reader, IndexedDocument.field(IndexedDocument.TITLE, stemmed));
+            TermImpacts.warm(reader, IndexedDocument.field(IndexedDocument.ABSTRACT, stemmed));
+        }
+    }
+
+    // The id field is an IntField, so its exact value is the prefix coded term with shift 0
+    private static Term idTerm(int id) {
+        BytesRef bytes = new BytesRef(NumericUtils.BUF_SIZE_INT);
+        NumericUtils.intToPrefixCoded(id, 0, bytes);
+        return new Term("id", bytes);
+    }
+
+    // Returns a searcher over the given reader that uses the given similarity type.
+    // A fresh IndexSearcher is cheap to create, so concurrent callers never see each other's similarity
+    // while the reader and its caches stay shared. The segments of a sharded index are searched in parallel.
+    private IndexSearcher newSearcher(IndexReader reader, SimilarityType similarityType) {
+        IndexSearcher searcher = new IndexSearcher(reader, searchExecutor);
+
+        switch (similarityType) {
+            case VSM_SIMILARITY:
+                searcher.setSimilarity(new DefaultSimilarity());
+                break;
+            case BM25_SIMILARITY:
+                searcher.setSimilarity(new BM25Similarity());
+                break;
+            case VSM_SUBLINEAR_SIMILARITY:
+                searcher.setSimilarity(new VSMSimilarity());
+                break;
+            default:
+                break;
+        }
+        return searcher;
+    }
+
+    private boolean isIndexCurrent(Map<String, String> stamp) throws IOException {
+        if (!DirectoryReader.indexExists(directory)) {
+            return false;
+        }
 
-            // Create the master query
-            BooleanQuery masterQuery = new BooleanQuery();
+        DirectoryReader reader = DirectoryReader.open(directory);
+        Map<String, String> userData = reader.getIndexCommit().getUserData();
+        reader.close();
 
-            // Parse the term queries
-            parseTermQuery("title", queryTermList, masterQuery, BooleanClause.Occur.SHOULD);
-            parseTermQuery("abstract", queryTermList, masterQuery, BooleanClause.Occur.SHOULD);
+        return stamp.equals(userData);
+    }
 
-            // Search the index
-            results = searcher.search(masterQuery, Integer.MAX_VALUE);
+    private IndexWriterConfig newConfig(BulkIndexer bulkIndexer) {
+        IndexWriterConfig config = (bulkIndexer != null) ? bulkIndexer.newConfig(indexAnalyzer)
+                : new IndexWriterConfig(Version.LUCENE_42, indexAnalyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        return config;
+    }
 
-            reader.close();
+    private void writeIndex(List<DocumentInCollection> docs, Map<String, String> commitData, BulkIndexer bulkIndexer)
+            throws IOException {
+        long start = System.nanoTime();
+        IndexWriter writer = new IndexWriter(directory, newConfig(bulkIndexer));
+        if (bulkIndexer != null) {
+            bulkIndexer.index(writer, docs);
+        }
+        else {
+            IndexedDocument document = new IndexedDocument();
+            for (DocumentInCollection doc : docs) {
+                writer.addDocument(document.set(doc));
+            }
+        }
+        if (commitData != null) {
+            writer.setCommitData(commitData);
+        }
+        writer.close();
+        Metrics.record(Metrics.INDEXING, start);
+        Metrics.increment("indexing.documents", docs.size());
+    }
+
+    // Splits the query into terms with the same analyzer that indexed the documents,
+    // so the query terms are lowercased, stopped and stemmed exactly like the index terms
+    private List<String> analyzeQuery(String query, boolean stemmed) {
+        List<String> queryTermList = new ArrayList<String>();
+
+        try {
+            TokenStream stream = indexAnalyzer.tokenStream(IndexedDocument.field(IndexedDocument.ABSTRACT, stemmed),
+                    new StringReader(query));
+            try {
+                CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+                stream.reset();
+                while (stream.incrementToken()) {
+                    queryTermList.add(term.toString());
+                }
+                stream.end();
+            }
+            finally {
+                stream.close();
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while analyzing the query : " + e.getCause());
+        }
+
+        return queryTermList;
+    }
+
+    // Returns the query that search(query, similarityType, stemmed) runs
+    public BooleanQuery parseQuery(String query, boolean stemmed) {
+        return buildQuery(analyzeQuery(query, stemmed), stemmed);
+    }
+
+    private BooleanQuery buildQuery(List<String> queryTermList, boolean stemmed) {
+        // Create the master query
+        BooleanQuery masterQuery = new BooleanQuery();
+
+        // Parse the term queries, on the stemmed variants of the fields if stemming is used
+        parseTermQuery(IndexedDocument.field(IndexedDocument.TITLE, stemmed), queryTermList, masterQuery,
+                BooleanClause.Occur.SHOULD);
+        parseTermQuery(IndexedDocument.field(IndexedDocument.ABSTRACT, stemmed), queryTermList, masterQuery,
+                BooleanClause.Occur.SHOULD);
+
+        return masterQuery;
+    }
+
+    // Returns every matching document, ranked
+    public SearchResults search(String query, SimilarityType similarityType, boolean stemmed) {
+        return search(query, similarityType, stemmed, Integer.MAX_VALUE);
+    }
+
+    // Returns the k best matching documents, ranked, and the number of matches in totalHits. When k is less than
+    // the number of documents the search skips scoring the documents that cannot make it into the top k, see
+    // MaxScoreDisjunction.
+    public SearchResults search(String query, SimilarityType similarityType, boolean stemmed, int k) {
+        return search(query, similarityType, stemmed, k, false);
+    }
+
+    // Same as search(query, similarityType, stemmed, k), and also reads the titles of the hits if withTitles is set
+    public SearchResults search(String query, SimilarityType similarityType, boolean stemmed, int k,
+                                boolean withTitles) {
+        SearchResults results = null;
+        long start = System.nanoTime();
+        List<String> queryTermList = analyzeQuery(query, stemmed);
+        Metrics.record(Metrics.QUERY_ANALYSIS, similarityType, stemmed, start);
+
+        try {
+            // Acquire the shared reader and create a searcher with the requested similarity on top of it.
+            // The ids and titles of the hits are read from the same reader before it is released.
+            IndexSearcher shared = acquireSearcher();
+            try {
+                IndexReader reader = shared.getIndexReader();
+                long version = ShardedSearcherManager.getVersion(reader);
+                if (queryCache != null) {
+                    results = queryCache.get(version, queryTermList, similarityType, stemmed, k);
+                    if (results != null) {
+                        Metrics.increment("search.cacheHits", 1);
+                        if (withTitles && results.getTitles() == null) {
+                            results = new SearchResults(results, results.getIds(),
+                                    getTitles(reader, results.scoreDocs));
+                        }
+                        return results;
+                    }
+                }
+
+                IndexSearcher searcher = newSearcher(reader, similarityType);
+                start = System.nanoTime();
+                BooleanQuery masterQuery = buildQuery(queryTermList, stemmed);
+                Metrics.record(Metrics.QUERY_CONSTRUCTION, similarityType, stemmed, start);
+
+                // Search the index
+                start = System.nanoTime();
+                TopDocs topDocs;
+                int maxDoc = reader.maxDoc();
+                if (k < maxDoc) {
+                    topDocs = MaxScoreDisjunction.search(searcher, masterQuery, k, searchExecutor);
+                }
+                else {
+                    // A parallel search allocates its hit queue up front, so it must not be larger than the index
+                    topDocs = searcher.search(masterQuery, Math.max(1, maxDoc));
+                }
+                Metrics.record(Metrics.SCORING, similarityType, stemmed, start);
+                Metrics.increment("search.queries", 1);
+
+                results = new SearchResults(topDocs, getIds(reader, topDocs.scoreDocs),
+                        withTitles ? getTitles(reader, topDocs.scoreDocs) : null);
+                if (queryCache != null) {
+                    queryCache.put(version, queryTermList, similarityType, stemmed, k, results);
+                }
+            }
+            finally {
+                releaseSearcher(shared);
+            }
         }
         catch (IOException e) {
             System.out.println("Caught IOException while searching the index : " + e.getCause());
@@ -121,103 +672,215 @@ public class LuceneSearchApp {
         return results;
     }
 
+    // Collects the k best matching documents without materializing a ScoreDoc per hit.
+    // The hits can be streamed in rank order with RankedHitCollector.replay, e.g. by getPRCurveData.
+    public RankedHitCollector searchRanked(String query, SimilarityType similarityType, boolean stemmed, int k) {
+        RankedHitCollector collector = null;
+        long start = System.nanoTime();
+        List<String> queryTermList = analyzeQuery(query, stemmed);
+        Metrics.record(Metrics.QUERY_ANALYSIS, similarityType, stemmed, start);
+        start = System.nanoTime();
+        BooleanQuery masterQuery = buildQuery(queryTermList, stemmed);
+        Metrics.record(Metrics.QUERY_CONSTRUCTION, similarityType, stemmed, start);
+
+        try {
+            IndexSearcher shared = acquireSearcher();
+            try {
+                IndexSearcher searcher = newSearcher(shared.getIndexReader(), similarityType);
+                collector = new RankedHitCollector(Math.min(k, Math.max(1, searcher.getIndexReader().maxDoc())));
+                start = System.nanoTime();
+                searcher.search(masterQuery, collector);
+                Metrics.record(Metrics.SCORING, similarityType, stemmed, start);
+                Metrics.increment("search.queries", 1);
+            }
+            finally {
+                releaseSearcher(shared);
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while searching the index : " + e.getCause());
+        }
+
+        return collector;
+    }
+
+    // Computes the hit count, the score summary and, if judgments are given, the number of relevant hits of the
+    // query in one pass over the matches, without ranking them, see HitStatsCollector. relevant may be null.
+    public HitStatsCollector searchStats(String query, SimilarityType similarityType, boolean stemmed,
+                                         Qrels.Judgments relevant) {
+        HitStatsCollector stats = null;
+        long start = System.nanoTime();
+        List<String> queryTermList = analyzeQuery(query, stemmed);
+        Metrics.record(Metrics.QUERY_ANALYSIS, similarityType, stemmed, start);
+        start = System.nanoTime();
+        BooleanQuery masterQuery = buildQuery(queryTermList, stemmed);
+        Metrics.record(Metrics.QUERY_CONSTRUCTION, similarityType, stemmed, start);
+
+        try {
+            IndexSearcher shared = acquireSearcher();
+            try {
+                IndexSearcher searcher = newSearcher(shared.getIndexReader(), similarityType);
+                stats = new HitStatsCollector(relevant);
+                start = System.nanoTime();
+                searcher.search(masterQuery, stats);
+                Metrics.record(Metrics.SCORING, similarityType, stemmed, start);
+                Metrics.increment("search.statsQueries", 1);
+            }
+            finally {
+                releaseSearcher(shared);
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while searching the index : " + e.getCause());
+        }
+
+        return stats;
+    }
+
     public void printQuery(String query) {
         System.out.println("Search (in title or abstract): " + query);
     }
 
-    public void analyzeResults(List<DocumentInCollection> docs, TopDocs retrieved, String query) {
+    // The results must have been searched with their titles
+    public void analyzeResults(Qrels qrels, SearchResults retrieved, String query) {
+        if (retrieved.getTitles() == null) {
+            throw new IllegalArgumentException("The results were searched without their titles");
+        }
+
         // Print the number of total hits and maximum score
         System.out.println("Total hits: " + retrieved.totalHits);
         System.out.println("Maximum score: " + retrieved.getMaxScore());
 
         if (retrieved.totalHits > 0) {
-            try {
-                IndexReader reader = DirectoryReader.open(directory);
-
-                // Get the relevant documents for this query and print the search precision and recall
-                List<DocumentInCollection> relevant = getRelevantDocumentsForQuery(docs, query, 18);
-                int hits = getHits(relevant, retrieved.scoreDocs, reader);
-                System.out.println("Relevant hits: " + hits);
-                System.out.println("Precision: " + getPrecision(retrieved.scoreDocs, hits));
-                System.out.println("Recall: " + getRecall(relevant, hits));
-                System.out.println("F1 score: " + getF1score(relevant, retrieved.scoreDocs, reader));
-
-                // Print the titles and individual scores of the retrieved documents
-                List<Document> retrievedDocuments = new ArrayList<Document>();
-                System.out.println("Scores and titles of the retrieved documents:");
-                for (ScoreDoc sdoc : retrieved.scoreDocs) {
-                    String title = reader.document(sdoc.doc).get("title");
-                    System.out.println(sdoc.score + " : " + title);
-                }
-
-                reader.close();
-            }
-            catch (IOException e) {
-                System.out.println("Caught IOException while reading the index in printResults : " + e.getCause());
+            // Get the relevant documents for this query and print the search precision and recall
+            long start = System.nanoTime();
+            Qrels.Judgments relevant = qrels.get(query, 18);
+            int hits = getHits(relevant, retrieved.getIds());
+            float f1 = getF1score(relevant, retrieved.getIds());
+            Metrics.record(Metrics.EVALUATION, start);
+            System.out.println("Relevant hits: " + hits);
+            System.out.println("Precision: " + getPrecision(retrieved.scoreDocs, hits));
+            System.out.println("Recall: " + getRecall(relevant, hits));
+            System.out.println("F1 score: " + f1);
+
+            // Print the titles and individual scores of the retrieved documents
+            System.out.println("Scores and titles of the retrieved documents:");
+            String[] titles = retrieved.getTitles();
+            for (int i = 0; i < retrieved.scoreDocs.length; i++) {
+                System.out.println(retrieved.scoreDocs[i].score + " : " + titles[i]);
             }
         }
     }
 
-    public void getPRCurveData(List<DocumentInCollection> docs, TopDocs retrieved, String query, String filePath) {
+    // Prints the summary lines of analyzeResults from the aggregates of a stats-only search, without the titles.
+    // Every match counts as retrieved.
+    public void analyzeResults(Qrels qrels, HitStatsCollector stats, String query) {
+        System.out.println("Total hits: " + stats.getTotalHits());
+        System.out.println("Maximum score: " + stats.getMaxScore());
+
+        if (stats.getTotalHits() > 0) {
+            Qrels.Judgments relevant = qrels.get(query, 18);
+            int hits = stats.getRelevantHits();
+            float precision = ((float) hits) / stats.getTotalHits();
+            float recall = getRecall(relevant, hits);
+            System.out.println("Relevant hits: " + hits);
+            System.out.println("Precision: " + precision);
+            System.out.println("Recall: " + recall);
+            System.out.println("F1 score: " + ((precision + recall == 0) ? 0 : (2*precision*recall) / (precision + recall)));
+            System.out.println("Minimum score: " + stats.getMinScore());
+            System.out.println("Mean score: " + stats.getMeanScore());
+        }
+    }
+
+    // Builds the precision-recall curve of the retrieved documents in one pass and writes it to filePath,
+    // see PrecisionRecallCurve.write for the formats. Returns null if nothing was retrieved.
+    public PrecisionRecallCurve getPRCurveData(Qrels qrels, SearchResults retrieved, String query, String filePath) {
+        PrecisionRecallCurve curve = null;
+
         if (retrieved.totalHits > 0) {
             try {
                 System.out.println("Opening path " + filePath + " for writing.."); // DEBUG
-                FileWriter file = new FileWriter(filePath);
-
-                IndexReader reader = DirectoryReader.open(directory);
 
-                // Get the relevant documents for this query and print the search precision and recall
-                List<DocumentInCollection> relevant = getRelevantDocumentsForQuery(docs, query, 18);
+                // Get the relevant documents for this query
+                Qrels.Judgments relevant = qrels.get(query, 18);
 
                 System.out.println("Writing the precision-recall data.."); // DEBUG
-                List<ScoreDoc> scoreDocs = new ArrayList<ScoreDoc>();
-                int hits = 0;
-                for (int i = 0; i < retrieved.scoreDocs.length; i++) {
-                    scoreDocs.add(retrieved.scoreDocs[i]);
-                    if (isHit(relevant, Integer.parseInt(reader.document(retrieved.scoreDocs[i].doc).get("id")))) {
-                        hits++;
-                    }
-                    float precision = getPrecision(scoreDocs, hits);
-                    float recall = getRecall(relevant, hits);
-                    file.write(i + " " + precision + " " + recall + "\n");
+                long start = System.nanoTime();
+                curve = new PrecisionRecallCurve(relevant.size(), retrieved.scoreDocs.length);
+                for (int id : retrieved.getIds()) {
+                    curve.add(isHit(relevant, id));
                 }
+                Metrics.record(Metrics.EVALUATION, start);
+                curve.write(filePath);
 
                 System.out.println("Data writing finished successfully.."); // DEBUG
-                file.close();
-                reader.close();
             }
             catch (IOException e) {
-                System.out.println("Caught IOException while reading the index in printResults : " + e.getCause());
+                System.out.println("Caught IOException while writing the precision-recall data : " + e.getCause());
             }
         }
+
+        return curve;
     }
 
-    public List<DocumentInCollection> getRelevantDocumentsForQuery(List<DocumentInCollection> docs, String query,
-                                                                   int searchTaskNumber) {
-        List<DocumentInCollection> relevant = new ArrayList<DocumentInCollection>();
-        for (DocumentInCollection doc : docs) {
-            if (doc.isRelevant() && (doc.getQuery().equals(query)) && doc.getSearchTaskNumber() == searchTaskNumber) {
-                relevant.add(doc);
+    // Same as getPRCurveData(qrels, SearchResults, ..) but consumes the hits one by one in rank order
+    public PrecisionRecallCurve getPRCurveData(Qrels qrels, RankedHitCollector retrieved, String query,
+                                               String filePath) {
+        PrecisionRecallCurve curve = null;
+
+        if (retrieved.getTotalHits() > 0) {
+            try {
+                final Qrels.Judgments relevant = qrels.get(query, 18);
+
+                long start = System.nanoTime();
+                final PrecisionRecallCurve rankedCurve = new PrecisionRecallCurve(relevant.size(), retrieved.size());
+                retrieved.replay(new RankedHitCollector.Handler() {
+                    @Override
+                    public void hit(int rank, int doc, int id, float score) {
+                        rankedCurve.add(isHit(relevant, id));
+                    }
+                });
+                Metrics.record(Metrics.EVALUATION, start);
+                rankedCurve.write(filePath);
+                curve = rankedCurve;
+            }
+            catch (IOException e) {
+                System.out.println("Caught IOException while writing the precision-recall data : " + e.getCause());
             }
         }
-        return relevant;
+
+        return curve;
     }
 
-    public boolean isHit(List<DocumentInCollection> relevant, int id) {
-        for (DocumentInCollection doc : relevant) {
-            if (doc.getId() == id) {
-                return true;
-            }
+    // Returns the collection ids of the retrieved documents in rank order, the doc ids must come from this reader
+    private static int[] getIds(IndexReader reader, ScoreDoc[] retrieved) throws IOException {
+        int[] ids = new int[retrieved.length];
+        NumericDocValues values = MultiDocValues.getNumericValues(reader, "id");
+        for (int i = 0; i < retrieved.length; i++) {
+            ids[i] = (int) values.get(retrieved[i].doc);
         }
-        return false;
+        return ids;
+    }
+
+    // Returns the titles of the retrieved documents in rank order, read in one batch in doc id order
+    private String[] getTitles(IndexReader reader, ScoreDoc[] retrieved) throws IOException {
+        long start = System.nanoTime();
+        String[] titles = titleFetcher.fetch(reader, retrieved)[0];
+        Metrics.record(Metrics.STORED_FIELD_FETCH, start);
+        return titles;
     }
 
-    public int getHits(List<DocumentInCollection> relevant, ScoreDoc[] retrieved, IndexReader reader) {
+    public boolean isHit(Qrels.Judgments relevant, int id) {
+        return relevant.contains(id);
+    }
+
+    public int getHits(Qrels.Judgments relevant, ScoreDoc[] retrieved, IndexReader reader) {
         int hits = 0;
 
         try {
+            NumericDocValues ids = MultiDocValues.getNumericValues(reader, "id");
             for (ScoreDoc sdoc : retrieved) {
-                if (isHit(relevant, Integer.parseInt(reader.document(sdoc.doc).get("id")))) {
+                if (isHit(relevant, (int) ids.get(sdoc.doc))) {
                     hits++;
                 }
             }
@@ -228,19 +891,13 @@ public class LuceneSearchApp {
         return hits;
     }
 
-    public int getHits(List<DocumentInCollection> relevant, List<ScoreDoc> retrieved, IndexReader reader) {
+    public int getHits(Qrels.Judgments relevant, int[] ids) {
         int hits = 0;
-
-        try {
-            for (ScoreDoc sdoc : retrieved) {
-                if (isHit(relevant, Integer.parseInt(reader.document(sdoc.doc).get("id")))) {
-                    hits++;
-                }
+        for (int id : ids) {
+            if (isHit(relevant, id)) {
+                hits++;
             }
-        } catch (IOException e) {
-            System.out.println("Caught IOException while reading the index in getPrecision : " + e.getCause());
         }
-
         return hits;
     }
 
@@ -248,35 +905,47 @@ public class LuceneSearchApp {
         return (((float)hits) / (retrieved.length));
     }
 
-    public float getPrecision(List<ScoreDoc> retrieved, int hits) {
-        return (((float)hits) / (retrieved.size()));
-    }
-
-    public float getRecall(List<DocumentInCollection> relevant, int hits) {
+    public float getRecall(Qrels.Judgments relevant, int hits) {
         return (relevant.size() == 0) ? 0 : (((float)hits) / (relevant.size()));
     }
 
-    public float getF1score(List<DocumentInCollection> relevant, ScoreDoc[] retrieved, IndexReader reader) {
+    public float getF1score(Qrels.Judgments relevant, ScoreDoc[] retrieved, IndexReader reader) {
         int hits = getHits(relevant, retrieved, reader);
         float precision = getPrecision(retrieved, hits);
         float recall = getRecall(relevant, hits);
         return (precision + recall == 0) ? 0 : (2*precision*recall) / (precision + recall);
     }
 
+    public float getF1score(Qrels.Judgments relevant, int[] ids) {
+        int hits = getHits(relevant, ids);
+        float precision = ((float) hits) / ids.length;
+        float recall = getRecall(relevant, hits);
+        return (precision + recall == 0) ? 0 : (2*precision*recall) / (precision + recall);
+    }
+
     public static void main(String[] args) {
         if (args.length > 0) {
             LuceneSearchApp engine = new LuceneSearchApp();
-            LuceneSearchApp engine_stemmed = new LuceneSearchApp();
+            engine.enableQueryCache(128);
 
             // Parse the documents from the XML file
             DocumentCollectionParser parser = new DocumentCollectionParser();
+            long start = System.nanoTime();
             parser.parse(args[0]);
+            Metrics.record(Metrics.PARSING, start);
             List<DocumentInCollection> docs = parser.getDocuments();
+            Metrics.increment("parsing.documents", docs.size());
+            Qrels qrels = new Qrels(parser.getCorpus());
 
             // 4 steps to victory
-            // 1. Index the relevant documents without stemming
-            engine.index(docs, false);
-            engine_stemmed.index(docs, true);
+            // 1. Index the relevant documents with and without stemming
+            //    If an index directory is given, keep the index on disk and reuse it between runs
+            if (args.length > 1) {
+                engine.index(docs, new File(args[1]), new File(args[0]));
+            }
+            else {
+                engine.index(docs);
+            }
 
             // 2. Form the queries
             List<String> queries = new ArrayList<String>();
@@ -286,35 +955,55 @@ public class LuceneSearchApp {
 
             // 3. Search the index for the documents without stemming
             //    Search the index for the documents with stemming
-            List<TopDocs> vsm_retrieved = new ArrayList<TopDocs>();
-            List<TopDocs> bm25_retrieved = new ArrayList<TopDocs>();
-            List<TopDocs> vsm_stemmed_retrieved = new ArrayList<TopDocs>();
-            List<TopDocs> bm25_stemmed_retrieved = new ArrayList<TopDocs>();
+            List<SearchResults> vsm_retrieved = new ArrayList<SearchResults>();
+            List<SearchResults> bm25_retrieved = new ArrayList<SearchResults>();
+            List<SearchResults> vsm_stemmed_retrieved = new ArrayList<SearchResults>();
+            List<SearchResults> bm25_stemmed_retrieved = new ArrayList<SearchResults>();
 
             for (String query : queries) {
-                vsm_retrieved.add(engine.search(query, SimilarityType.VSM_SIMILARITY, false));
-                bm25_retrieved.add(engine.search(query, SimilarityType.BM25_SIMILARITY, false));
-                vsm_stemmed_retrieved.add(engine_stemmed.search(query, SimilarityType.VSM_SIMILARITY, true));
-                bm25_stemmed_retrieved.add(engine_stemmed.search(query, SimilarityType.BM25_SIMILARITY, true));
+                engine.printQuery(query);
+                vsm_retrieved.add(engine.search(query, SimilarityType.VSM_SIMILARITY, false, Integer.MAX_VALUE, true));
+                bm25_retrieved.add(engine.search(query, SimilarityType.BM25_SIMILARITY, false, Integer.MAX_VALUE, true));
+                vsm_stemmed_retrieved.add(engine.search(query, SimilarityType.VSM_SIMILARITY, true, Integer.MAX_VALUE, true));
+                bm25_stemmed_retrieved.add(engine.search(query, SimilarityType.BM25_SIMILARITY, true, Integer.MAX_VALUE, true));
             }
 
 
             // 4. Analyze the results
             for (int i = 0; i < queries.size(); i++) {
                 System.out.println("VSM without stemming, query: " + queries.get(i));
-                engine.analyzeResults(docs, vsm_retrieved.get(i), queries.get(i));
-                engine.getPRCurveData(docs, vsm_retrieved.get(i), queries.get(i), "data/vsm_results" + i + ".txt");
+                engine.analyzeResults(qrels, vsm_retrieved.get(i), queries.get(i));
+                engine.getPRCurveData(qrels, vsm_retrieved.get(i), queries.get(i), "data/vsm_results" + i + ".txt");
                 System.out.println("BM25 without stemming, query: " + queries.get(i));
-                engine.analyzeResults(docs, bm25_retrieved.get(i), queries.get(i));
-                engine.getPRCurveData(docs, bm25_retrieved.get(i), queries.get(i), "data/bm25_results" + i + ".txt");
+                engine.analyzeResults(qrels, bm25_retrieved.get(i), queries.get(i));
+                engine.getPRCurveData(qrels, bm25_retrieved.get(i), queries.get(i), "data/bm25_results" + i + ".txt");
 
                 System.out.println("VSM with stemming, query: " + queries.get(i));
-                engine.analyzeResults(docs, vsm_stemmed_retrieved.get(i), queries.get(i));
-                engine.getPRCurveData(docs, vsm_stemmed_retrieved.get(i), queries.get(i), "data/vsm_stemmed_results" + i + ".txt");
+                engine.analyzeResults(qrels, vsm_stemmed_retrieved.get(i), queries.get(i));
+                engine.getPRCurveData(qrels, vsm_stemmed_retrieved.get(i), queries.get(i), "data/vsm_stemmed_results" + i + ".txt");
                 System.out.println("BM25 with stemming, query: " + queries.get(i));
-                engine.analyzeResults(docs, bm25_stemmed_retrieved.get(i), queries.get(i));
-                engine.getPRCurveData(docs, bm25_stemmed_retrieved.get(i), queries.get(i), "data/bm25_stemmed_results" + i + ".txt");
+                engine.analyzeResults(qrels, bm25_stemmed_retrieved.get(i), queries.get(i));
+                engine.getPRCurveData(qrels, bm25_stemmed_retrieved.get(i), queries.get(i), "data/bm25_stemmed_results" + i + ".txt");
+            }
+
+            // 5. Evaluate the whole query and configuration grid concurrently into one report
+            try {
+                ExperimentRunner runner = new ExperimentRunner(engine, qrels, 18, 10);
+                List<ExperimentRunner.Configuration> configurations = ExperimentRunner.allConfigurations();
+                runner.writeReport(runner.run(queries, configurations), configurations, "data/experiments.json");
+                System.out.println("Experiment report written to data/experiments.json");
+                System.out.println("Query cache hits: " + engine.getQueryCache().getHitCount()
+                        + ", misses: " + engine.getQueryCache().getMissCount());
+
+                // 6. Dump the per-phase latencies of the whole run
+                Metrics.writeJson("data/metrics.json");
+                System.out.println("Metrics written to data/metrics.json");
+            }
+            catch (IOException e) {
+                System.out.println("Caught IOException while running the experiments : " + e.getCause());
             }
+
+            engine.close();
         }
         else {
             System.out.println("ERROR: the path of a XML document has to be passed as a command line argument.");
@@ -0,0 +1,315 @@
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.PriorityQueue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Top-k search of a disjunction of term queries, like the ones built by LuceneSearchApp, with MaxScore pruning.
+// Every term gets an upper bound of its score in each segment, from its representative documents in TermImpacts.
+// With the clauses sorted by bound, the ones whose bounds together cannot beat the k-th best score so far are
+// non-essential: documents matching only them are never visited, and they are only advanced to documents of the
+// essential clauses while those can still make it into the top k.
+// Scores are computed exactly like BooleanQuery does, so the top k are the same as with exhaustive scoring.
+// totalHits still counts every match: the skipped documents are counted afterwards from the doc ids of the
+// postings of the clauses that became non-essential, without decoding frequencies or scoring.
+public final class MaxScoreDisjunction {
+
+    // Bounds are slightly inflated so summing the scores in another order than BooleanScorer never prunes a hit
+    private static final double BOUND_SLACK = 1 + 1e-6;
+
+    private static class Clause {
+
+        private final Term term;
+        private final Scorer scorer;
+        private final float bound;
+
+        private Clause(Term term, Scorer scorer, float bound) {
+            this.term = term;
+            this.scorer = scorer;
+            this.bound = bound;
+        }
+    }
+
+    // The k best hits so far, the worst at the top. It starts filled with sentinels that any hit beats.
+    private static class HitQueue extends PriorityQueue<ScoreDoc> {
+
+        private int hits;
+
+        private HitQueue(int size) {
+            super(size, true);
+            this.hits = 0;
+        }
+
+        @Override
+        protected ScoreDoc getSentinelObject() {
+            return new ScoreDoc(Integer.MAX_VALUE, Float.NEGATIVE_INFINITY);
+        }
+
+        // Same order as TopScoreDocCollector: by score, then the lower document first
+        @Override
+        protected boolean lessThan(ScoreDoc a, ScoreDoc b) {
+            return (a.score == b.score) ? a.doc > b.doc : a.score < b.score;
+        }
+
+        private void replaceTop(int doc, float score) {
+            ScoreDoc bottom = top();
+            if (bottom.score == Float.NEGATIVE_INFINITY) {
+                hits++;
+            }
+            bottom.doc = doc;
+            bottom.score = score;
+            updateTop();
+        }
+    }
+
+    private MaxScoreDisjunction() {
+
+    }
+
+    // Returns the k best hits of a BooleanQuery made only of SHOULD TermQuery clauses without boosts.
+    // totalHits is the number of matching documents, like with exhaustive scoring.
+    public static TopDocs search(IndexSearcher searcher, BooleanQuery query, int k) throws IOException {
+        return search(searcher, query, k, null);
+    }
+
+    // Same as search(searcher, query, k), but if an executor is given the segments are searched in parallel,
+    // each against its own top k, and the results are merged
+    public static TopDocs search(IndexSearcher searcher, BooleanQuery query, int k, ExecutorService executor)
+            throws IOException {
+        BooleanClause[] clauses = query.getClauses();
+        final Term[] terms = new Term[clauses.length];
+        for (int i = 0; i < clauses.length; i++) {
+            Query clause = clauses[i].getQuery();
+            if (clauses[i].getOccur() != BooleanClause.Occur.SHOULD || !(clause instanceof TermQuery)
+                    || clause.getBoost() != 1 || query.getBoost() != 1 || query.getMinimumNumberShouldMatch() != 0) {
+                throw new IllegalArgumentException("Not a disjunction of term queries: " + query);
+            }
+            terms[i] = ((TermQuery) clause).getTerm();
+        }
+
+        Similarity similarity = searcher.getSimilarity();
+
+        // Weigh the clauses the way BooleanWeight and IndexSearcher.createNormalizedWeight do
+        final Weight[] weights = new Weight[terms.length];
+        float sumOfSquaredWeights = 0;
+        for (int i = 0; i < terms.length; i++) {
+            weights[i] = new TermQuery(terms[i]).createWeight(searcher);
+            sumOfSquaredWeights += weights[i].getValueForNormalization();
+        }
+        float queryNorm = similarity.queryNorm(sumOfSquaredWeights);
+        if (Float.isInfinite(queryNorm) || Float.isNaN(queryNorm)) {
+            queryNorm = 1.0f;
+        }
+        for (Weight weight : weights) {
+            weight.normalize(queryNorm, 1.0f);
+        }
+
+        final float[] coordFactors = new float[terms.length + 1];
+        float maxCoordFactor = 0;
+        for (int i = 0; i < coordFactors.length; i++) {
+            coordFactors[i] = similarity.coord(i, terms.length);
+            if (i > 0) {
+                maxCoordFactor = Math.max(maxCoordFactor, coordFactors[i]);
+            }
+        }
+
+        final int size = Math.min(k, Math.max(1, searcher.getIndexReader().maxDoc()));
+        List<AtomicReaderContext> leaves = searcher.getIndexReader().leaves();
+        if (executor == null || leaves.size() < 2) {
+            HitQueue hits = new HitQueue(size);
+            int totalHits = 0;
+            for (AtomicReaderContext context : leaves) {
+                totalHits += searchSegment(context, terms, weights, coordFactors, maxCoordFactor, hits);
+            }
+            return topDocs(hits, totalHits);
+        }
+
+        List<Future<TopDocs>> segments = new ArrayList<Future<TopDocs>>();
+        final float segmentMaxCoordFactor = maxCoordFactor;
+        for (final AtomicReaderContext context : leaves) {
+            segments.add(executor.submit(new Callable<TopDocs>() {
+                @Override
+                public TopDocs call() throws IOException {
+                    HitQueue hits = new HitQueue(size);
+                    int totalHits = searchSegment(context, terms, weights, coordFactors, segmentMaxCoordFactor,
+                            hits);
+                    return topDocs(hits, totalHits);
+                }
+            }));
+        }
+
+        TopDocs[] segmentHits = new TopDocs[segments.size()];
+        try {
+            for (int i = 0; i < segmentHits.length; i++) {
+                segmentHits[i] = segments.get(i).get();
+            }
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+
+        // Equal scores keep the order of the segments, so the lower document still comes first
+        TopDocs merged = TopDocs.merge(null, size, segmentHits);
+        merged.setMaxScore((merged.scoreDocs.length > 0) ? merged.scoreDocs[0].score : Float.NaN);
+        return merged;
+    }
+
+    private static TopDocs topDocs(HitQueue hits, int totalHits) {
+        // The remaining sentinels come out first
+        for (int i = hits.size() - hits.hits; i > 0; i--) {
+            hits.pop();
+        }
+        ScoreDoc[] scoreDocs = new ScoreDoc[hits.size()];
+        for (int i = scoreDocs.length - 1; i >= 0; i--) {
+            scoreDocs[i] = hits.pop();
+        }
+        return new TopDocs(totalHits, scoreDocs, (scoreDocs.length > 0) ? scoreDocs[0].score : Float.NaN);
+    }
+
+    private static int searchSegment(AtomicReaderContext context, Term[] terms, Weight[] weights, float[] coordFactors,
+                                     float maxCoordFactor, HitQueue hits) throws IOException {
+        AtomicReader reader = context.reader();
+
+        Clause[] clauses = new Clause[terms.length];
+        int count = 0;
+        for (int i = 0; i < terms.length; i++) {
+            Scorer scorer = weights[i].scorer(context, true, false, reader.getLiveDocs());
+            if (scorer != null && scorer.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                clauses[count++] = new Clause(terms[i], scorer, bound(context, terms[i], weights[i]));
+            }
+        }
+        clauses = Arrays.copyOf(clauses, count);
+        Arrays.sort(clauses, new Comparator<Clause>() {
+            @Override
+            public int compare(Clause a, Clause b) {
+                return Float.compare(a.bound, b.bound);
+            }
+        });
+
+        // boundSums[i] bounds the summed scores of the clauses before i
+        double[] boundSums = new double[count + 1];
+        for (int i = 0; i < count; i++) {
+            boundSums[i + 1] = boundSums[i] + clauses[i].bound;
+        }
+
+        // Every visited document matches, the ones matching only non-essential clauses are added at the end
+        FixedBitSet matched = new FixedBitSet(reader.maxDoc());
+        int firstEssential = 0;
+        while (true) {
+            // A hit only replaces the worst one with a strictly higher score, the documents come in increasing order
+            float threshold = hits.top().score;
+            while (firstEssential < count
+                    && boundSums[firstEssential + 1] * maxCoordFactor * BOUND_SLACK <= threshold) {
+                firstEssential++;
+            }
+            if (firstEssential == count) {
+                break;
+            }
+
+            int doc = DocIdSetIterator.NO_MORE_DOCS;
+            for (int i = firstEssential; i < count; i++) {
+                doc = Math.min(doc, clauses[i].scorer.docID());
+            }
+            if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+                break;
+            }
+
+            matched.set(doc);
+            double score = 0;
+            int matches = 0;
+            for (int i = firstEssential; i < count; i++) {
+                if (clauses[i].scorer.docID() == doc) {
+                    score += clauses[i].scorer.score();
+                    matches++;
+                }
+            }
+
+            // Add the non-essential clauses, best bound first, while the document can still beat the threshold
+            boolean competitive = true;
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                if ((score + boundSums[i + 1]) * maxCoordFactor * BOUND_SLACK <= threshold) {
+                    competitive = false;
+                    break;
+                }
+                Scorer scorer = clauses[i].scorer;
+                if (scorer.docID() < doc) {
+                    scorer.advance(doc);
+                }
+                if (scorer.docID() == doc) {
+                    score += scorer.score();
+                    matches++;
+                }
+            }
+
+            if (competitive) {
+                float finalScore = (float) (score * coordFactors[matches]);
+                if (finalScore > threshold) {
+                    hits.replaceTop(context.docBase + doc, finalScore);
+                }
+            }
+
+            for (int i = firstEssential; i < count; i++) {
+                if (clauses[i].scorer.docID() == doc) {
+                    clauses[i].scorer.nextDoc();
+                }
+            }
+        }
+
+        // The clauses that were essential until the end had all of their documents visited
+        for (int i = 0; i < firstEssential; i++) {
+            markMatches(reader, clauses[i].term, matched);
+        }
+        return matched.cardinality();
+    }
+
+    // Marks the live documents containing the term, reading only the doc ids of its postings
+    private static void markMatches(AtomicReader reader, Term term, FixedBitSet matched) throws IOException {
+        Terms terms = reader.terms(term.field());
+        if (terms == null) {
+            return;
+        }
+        TermsEnum termsEnum = terms.iterator(null);
+        if (!termsEnum.seekExact(term.bytes(), true)) {
+            return;
+        }
+        DocsEnum docs = termsEnum.docs(reader.getLiveDocs(), null, DocsEnum.FLAG_NONE);
+        int doc;
+        while ((doc = docs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            matched.set(doc);
+        }
+    }
+
+    // The best score of the term in the segment from its representative documents. Terms without them are rare,
+    // so their clauses stay essential and all of their documents get scored anyway.
+    private static float bound(AtomicReaderContext context, Term term, Weight weight) throws IOException {
+        int[] docs = TermImpacts.get(context.reader(), term.field(), term.bytes());
+        if (docs == null) {
+            return Float.POSITIVE_INFINITY;
+        }
+
+        Scorer scorer = weight.scorer(context, true, false, null);
+        float bound = 0;
+        for (int doc : docs) {
+            if (scorer.advance(doc) == doc) {
+                bound = Math.max(bound, scorer.score());
+            }
+        }
+        return bound;
+    }
+}
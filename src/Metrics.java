@@ -0,0 +1,206 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Process-wide counters and latency histograms of the search pipeline phases.
+// Timers can be tagged with the similarity type and the stemming flag of the search they measure.
+// Recording is lock-free, the state can be dumped as JSON on demand or periodically.
+public final class Metrics {
+
+    // Phase names used by the application
+    public static final String PARSING = "parsing";
+    public static final String INDEXING = "indexing";
+    public static final String QUERY_ANALYSIS = "query.analysis";
+    public static final String QUERY_CONSTRUCTION = "query.construction";
+    public static final String SCORING = "scoring";
+    public static final String STORED_FIELD_FETCH = "storedFields.fetch";
+    public static final String EVALUATION = "evaluation";
+
+    private static class Timer {
+
+        private final String name;
+        private final LuceneSearchApp.SimilarityType similarityType;
+        private final Boolean stemmed;
+        private final LatencyHistogram histogram;
+
+        private Timer(String name, LuceneSearchApp.SimilarityType similarityType, Boolean stemmed) {
+            this.name = name;
+            this.similarityType = similarityType;
+            this.stemmed = stemmed;
+            this.histogram = new LatencyHistogram();
+        }
+    }
+
+    // The timers of one phase, untagged and per similarity type and stemming flag. They are all created with the
+    // phase, so recording only looks the phase up by name and allocates nothing.
+    private static class Phase {
+
+        private final Timer untagged;
+        private final EnumMap<LuceneSearchApp.SimilarityType, Timer[]> tagged;
+
+        private Phase(String name) {
+            this.untagged = new Timer(name, null, null);
+            this.tagged = new EnumMap<LuceneSearchApp.SimilarityType, Timer[]>(LuceneSearchApp.SimilarityType.class);
+            for (LuceneSearchApp.SimilarityType similarityType : LuceneSearchApp.SimilarityType.values()) {
+                tagged.put(similarityType, new Timer[] {new Timer(name, similarityType, false),
+                        new Timer(name, similarityType, true)});
+            }
+        }
+
+        private Timer timer(LuceneSearchApp.SimilarityType similarityType, boolean stemmed) {
+            return tagged.get(similarityType)[stemmed ? 1 : 0];
+        }
+    }
+
+    private static final ConcurrentMap<String, Phase> phases = new ConcurrentHashMap<String, Phase>();
+    private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    private Metrics() {
+
+    }
+
+    // Records the time elapsed since startNanos, a value of System.nanoTime(), for an untagged phase
+    public static void record(String phase, long startNanos) {
+        phase(phase).untagged.histogram.record(System.nanoTime() - startNanos);
+    }
+
+    // Records the time elapsed since startNanos for a phase of a search
+    public static void record(String phase, LuceneSearchApp.SimilarityType similarityType, boolean stemmed,
+                              long startNanos) {
+        phase(phase).timer(similarityType, stemmed).histogram.record(System.nanoTime() - startNanos);
+    }
+
+    public static void increment(String counter, long delta) {
+        AtomicLong value = counters.get(counter);
+        if (value == null) {
+            AtomicLong created = new AtomicLong();
+            value = counters.putIfAbsent(counter, created);
+            if (value == null) {
+                value = created;
+            }
+        }
+        value.addAndGet(delta);
+    }
+
+    private static Phase phase(String name) {
+        Phase phase = phases.get(name);
+        if (phase == null) {
+            Phase created = new Phase(name);
+            phase = phases.putIfAbsent(name, created);
+            if (phase == null) {
+                phase = created;
+            }
+        }
+        return phase;
+    }
+
+    public static void reset() {
+        phases.clear();
+        counters.clear();
+    }
+
+    // Returns the counters and the count, mean and p50/p99/p999/max latencies of every timer in microseconds.
+    // Timers that never recorded anything are left out.
+    public static String toJson() {
+        List<Timer> sortedTimers = new ArrayList<Timer>();
+        for (Phase phase : phases.values()) {
+            addRecorded(phase.untagged, sortedTimers);
+            for (Timer[] timers : phase.tagged.values()) {
+                for (Timer timer : timers) {
+                    addRecorded(timer, sortedTimers);
+                }
+            }
+        }
+        Collections.sort(sortedTimers, new Comparator<Timer>() {
+            @Override
+            public int compare(Timer a, Timer b) {
+                return (a.name + a.similarityType + a.stemmed).compareTo(b.name + b.similarityType + b.stemmed);
+            }
+        });
+        List<String> counterNames = new ArrayList<String>(counters.keySet());
+        Collections.sort(counterNames);
+
+        StringBuilder json = new StringBuilder("{\n  \"counters\": {");
+        for (int i = 0; i < counterNames.size(); i++) {
+            json.append(i > 0 ? ",\n    " : "\n    ").append(Json.quote(counterNames.get(i))).append(": ")
+                    .append(counters.get(counterNames.get(i)).get());
+        }
+        json.append(counterNames.isEmpty() ? "},\n" : "\n  },\n");
+
+        json.append("  \"timers\": [");
+        for (int i = 0; i < sortedTimers.size(); i++) {
+            Timer timer = sortedTimers.get(i);
+            LatencyHistogram histogram = timer.histogram;
+            json.append(i > 0 ? ",\n    " : "\n    ")
+                    .append("{\"phase\": ").append(Json.quote(timer.name));
+            if (timer.similarityType != null) {
+                json.append(", \"similarity\": ").append(Json.quote(timer.similarityType.name()));
+            }
+            if (timer.stemmed != null) {
+                json.append(", \"stemmed\": ").append(timer.stemmed);
+            }
+            json.append(", \"count\": ").append(histogram.getCount())
+                    .append(", \"meanMicros\": ").append(Json.number((float) (histogram.getMean() / 1000)))
+                    .append(", \"p50Micros\": ").append(Json.number(histogram.getPercentile(0.5) / 1000f))
+                    .append(", \"p99Micros\": ").append(Json.number(histogram.getPercentile(0.99) / 1000f))
+                    .append(", \"p999Micros\": ").append(Json.number(histogram.getPercentile(0.999) / 1000f))
+                    .append(", \"maxMicros\": ").append(Json.number(histogram.getMax() / 1000f))
+                    .append("}");
+        }
+        json.append(sortedTimers.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private static void addRecorded(Timer timer, List<Timer> timers) {
+        if (timer.histogram.getCount() > 0) {
+            timers.add(timer);
+        }
+    }
+
+    public static void writeJson(String filePath) throws IOException {
+        Writer out = new BufferedWriter(new FileWriter(filePath));
+        try {
+            out.write(toJson());
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    // Rewrites the JSON dump in filePath every periodSeconds on a daemon thread until the returned service is shut down
+    public static ScheduledExecutorService scheduleDump(final String filePath, long periodSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Metrics dump");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeJson(filePath);
+                }
+                catch (IOException e) {
+                    System.out.println("Caught IOException while writing the metrics : " + e.getCause());
+                }
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        return scheduler;
+    }
+}
@@ -0,0 +1,193 @@
+import java.io.*;
+
+// Precision-recall curve of one ranking, built in a single pass over the hits in rank order.
+// The precision and recall at every rank are kept in two float columns, while the 11-point interpolated
+// precision and the area under the curve are updated as each hit is added, so nothing is computed afterwards.
+// The curve can be written as a compact binary file, as CSV or as the "rank precision recall" text of the
+// plotting scripts, always through a buffered stream.
+public class PrecisionRecallCurve {
+
+    // Recall levels 0.0, 0.1, .., 1.0 of the interpolated curve
+    public static final int LEVELS = 11;
+
+    // Starts every binary curve file, "PRC1"
+    private static final int MAGIC = 0x50524331;
+
+    private final int relevantCount;
+    private float[] precision;
+    private float[] recall;
+    private int size;
+    private int hits;
+
+    // Highest interpolated recall level reached so far, -1 before the first rank is added
+    private int reachedLevel;
+    private final float[] interpolated;
+    private float area;
+
+    // relevantCount is the number of relevant documents of the query, expectedSize the number of ranks if known
+    public PrecisionRecallCurve(int relevantCount, int expectedSize) {
+        this.relevantCount = relevantCount;
+        this.precision = new float[Math.max(1, expectedSize)];
+        this.recall = new float[Math.max(1, expectedSize)];
+        this.size = 0;
+        this.hits = 0;
+        this.reachedLevel = -1;
+        this.interpolated = new float[LEVELS];
+        this.area = 0;
+    }
+
+    // Adds the next rank, relevant tells whether the document at that rank is relevant
+    public void add(boolean relevant) {
+        if (relevant) {
+            hits++;
+        }
+        float p = ((float)hits) / (size + 1);
+        float r = (relevantCount == 0) ? 0 : (((float)hits) / relevantCount);
+
+        if (size == precision.length) {
+            int capacity = size + (size >> 1) + 1;
+            float[] grownPrecision = new float[capacity];
+            float[] grownRecall = new float[capacity];
+            System.arraycopy(precision, 0, grownPrecision, 0, size);
+            System.arraycopy(recall, 0, grownRecall, 0, size);
+            precision = grownPrecision;
+            recall = grownRecall;
+        }
+
+        // Trapezoid between the previous point and this one
+        if (size > 0) {
+            area += (r - recall[size - 1]) * (p + precision[size - 1]) / 2;
+        }
+        precision[size] = p;
+        recall[size] = r;
+        size++;
+
+        // The interpolated precision at a level is the best precision at any recall of at least that level.
+        // Recall never decreases with rank, so this point counts for every level reached so far.
+        // Level l is reached once hits / relevantCount >= l / 10, compared in integers to avoid rounding.
+        while (reachedLevel + 1 < LEVELS && 10 * hits >= (reachedLevel + 1) * relevantCount) {
+            reachedLevel++;
+        }
+        for (int level = 0; level <= reachedLevel; level++) {
+            if (p > interpolated[level]) {
+                interpolated[level] = p;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getRelevantCount() {
+        return relevantCount;
+    }
+
+    public float getPrecision(int rank) {
+        return precision[rank];
+    }
+
+    public float getRecall(int rank) {
+        return recall[rank];
+    }
+
+    // Interpolated precision at the recall levels 0.0, 0.1, .., 1.0, 0 for levels the ranking never reaches
+    public float[] getInterpolatedPrecision() {
+        return interpolated.clone();
+    }
+
+    // Area under the precision-recall curve by the trapezoidal rule over the points of every rank
+    public float getArea() {
+        return area;
+    }
+
+    // Writes the curve in the format given by the file extension: ".bin" for binary, ".csv" for CSV,
+    // anything else for the "rank precision recall" lines read by scripts/pr_curve.py
+    public void write(String filePath) throws IOException {
+        if (filePath.endsWith(".bin")) {
+            writeBinary(filePath);
+        }
+        else if (filePath.endsWith(".csv")) {
+            writeText(filePath, "rank,precision,recall\n", ',');
+        }
+        else {
+            writeText(filePath, null, ' ');
+        }
+    }
+
+    // Layout: magic, size, relevant count, the precision column, the recall column,
+    // the 11 interpolated precisions and the area, all big-endian
+    public void writeBinary(String filePath) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            out.writeInt(relevantCount);
+            for (int i = 0; i < size; i++) {
+                out.writeFloat(precision[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeFloat(recall[i]);
+            }
+            for (int level = 0; level < LEVELS; level++) {
+                out.writeFloat(interpolated[level]);
+            }
+            out.writeFloat(area);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    // Reads a curve written by writeBinary
+    public static PrecisionRecallCurve readBinary(String filePath) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(filePath + " is not a precision-recall curve file");
+            }
+            int size = in.readInt();
+            PrecisionRecallCurve curve = new PrecisionRecallCurve(in.readInt(), size);
+            for (int i = 0; i < size; i++) {
+                curve.precision[i] = in.readFloat();
+            }
+            for (int i = 0; i < size; i++) {
+                curve.recall[i] = in.readFloat();
+            }
+            for (int level = 0; level < LEVELS; level++) {
+                curve.interpolated[level] = in.readFloat();
+            }
+            curve.area = in.readFloat();
+            curve.size = size;
+            curve.hits = (size == 0) ? 0 : Math.round(curve.precision[size - 1] * size);
+            curve.reachedLevel = LEVELS - 1;
+            while (curve.reachedLevel >= 0 && 10 * curve.hits < curve.reachedLevel * curve.relevantCount) {
+                curve.reachedLevel--;
+            }
+            return curve;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private void writeText(String filePath, String header, char separator) throws IOException {
+        Writer out = new BufferedWriter(new FileWriter(filePath));
+        try {
+            if (header != null) {
+                out.write(header);
+            }
+            for (int i = 0; i < size; i++) {
+                out.write(Integer.toString(i));
+                out.write(separator);
+                out.write(Float.toString(precision[i]));
+                out.write(separator);
+                out.write(Float.toString(recall[i]));
+                out.write('\n');
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Relevance judgments of a document collection, indexed by query and search task number.
+// Built once from the parsed documents, the relevant document ids of each (query, search task number)
+// pair are kept in a BitSet so checking whether a retrieved document is relevant takes constant time.
+// Lookups take no lock, so concurrent evaluations do not contend; add must not run while they do.
+public class Qrels {
+
+    // The relevant document ids for one query and search task number
+    public static class Judgments {
+
+        private final BitSet ids;
+        private int size;
+
+        private Judgments() {
+            this.ids = new BitSet();
+            this.size = 0;
+        }
+
+        public boolean contains(int id) {
+            return ids.get(id);
+        }
+
+        // Number of relevant documents
+        public int size() {
+            return size;
+        }
+
+        private void add(int id) {
+            if (!ids.get(id)) {
+                ids.set(id);
+                size++;
+            }
+        }
+    }
+
+    private static final Judgments NONE = new Judgments();
+
+    private final ConcurrentMap<String, Judgments> judgments;
+
+    public Qrels() {
+        this.judgments = new ConcurrentHashMap<String, Judgments>();
+    }
+
+    public Qrels(Iterable<DocumentInCollection> docs) {
+        this();
+        for (DocumentInCollection doc : docs) {
+            add(doc);
+        }
+    }
+
+    // Same as Qrels(corpus.getDocuments()) but walks the columns of the store, looking up the judgments of each
+    // query and search task pair only once
+    public Qrels(CorpusStore corpus) {
+        this();
+        Judgments[] pairs = new Judgments[corpus.getQueryCount() * corpus.getSearchTaskCount()];
+        for (int row = corpus.nextRelevant(0); row >= 0; row = corpus.nextRelevant(row + 1)) {
+            int pair = corpus.getQueryCode(row) * corpus.getSearchTaskCount() + corpus.getSearchTaskCode(row);
+            if (pairs[pair] == null) {
+                String key = key(corpus.getQuery(row), corpus.getSearchTaskNumber(row));
+                pairs[pair] = judgments.get(key);
+                if (pairs[pair] == null) {
+                    pairs[pair] = new Judgments();
+                    judgments.put(key, pairs[pair]);
+                }
+            }
+            pairs[pair].add(corpus.getId(row));
+        }
+    }
+
+    // Records the judgment of a single document, irrelevant documents are ignored
+    public synchronized void add(DocumentInCollection doc) {
+        if (!doc.isRelevant()) {
+            return;
+        }
+
+        String key = key(doc.getQuery(), doc.getSearchTaskNumber());
+        Judgments relevant = judgments.get(key);
+        if (relevant == null) {
+            relevant = new Judgments();
+            judgments.put(key, relevant);
+        }
+        relevant.add(doc.getId());
+    }
+
+    // Returns the relevant documents for the query in the given search task, empty if there are none
+    public Judgments get(String query, int searchTaskNumber) {
+        Judgments relevant = judgments.get(key(query, searchTaskNumber));
+        return (relevant != null) ? relevant : NONE;
+    }
+
+    private static String key(String query, int searchTaskNumber) {
+        return searchTaskNumber + "\t" + query;
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Size-bounded LRU cache of search results.
+// Results are keyed by the analyzed query terms, the similarity type, the stemming flag and k, and are only
+// valid for the index version they were computed on: the whole cache is dropped when the version changes.
+// Cached results are shared between callers and must not be modified.
+public class QueryResultCache {
+
+    private static class Key {
+
+        private final List<String> terms;
+        private final LuceneSearchApp.SimilarityType similarityType;
+        private final boolean stemmed;
+        private final int k;
+
+        private Key(List<String> terms, LuceneSearchApp.SimilarityType similarityType, boolean stemmed, int k) {
+            this.terms = terms;
+            this.similarityType = similarityType;
+            this.stemmed = stemmed;
+            this.k = k;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj == null || obj.getClass() != this.getClass()) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return this.k == other.k && this.stemmed == other.stemmed
+                    && this.similarityType == other.similarityType && this.terms.equals(other.terms);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = terms.hashCode();
+            hash = 31 * hash + similarityType.hashCode();
+            hash = 31 * hash + (stemmed ? 1 : 0);
+            return 31 * hash + k;
+        }
+    }
+
+    private final Map<Key, SearchResults> entries;
+    private long indexVersion;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    public QueryResultCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<Key, SearchResults>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, SearchResults> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.indexVersion = -1;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    // Returns the cached results computed on the given index version, null if there are none
+    public synchronized SearchResults get(long indexVersion, List<String> terms,
+                                          LuceneSearchApp.SimilarityType similarityType, boolean stemmed, int k) {
+        checkVersion(indexVersion);
+        // A search still holding an older reader must not get the results of the new version, their doc ids
+        // belong to another reader
+        SearchResults results = (indexVersion == this.indexVersion)
+                ? entries.get(new Key(terms, similarityType, stemmed, k)) : null;
+        if (results != null) {
+            hits.incrementAndGet();
+        }
+        else {
+            misses.incrementAndGet();
+        }
+        return results;
+    }
+
+    public synchronized void put(long indexVersion, List<String> terms, LuceneSearchApp.SimilarityType similarityType,
+                                 boolean stemmed, int k, SearchResults results) {
+        checkVersion(indexVersion);
+        // A search that started before a refresh must not fill the cache of the new version
+        if (indexVersion == this.indexVersion) {
+            entries.put(new Key(terms, similarityType, stemmed, k), results);
+        }
+    }
+
+    // Drops every entry, needed when the index is replaced rather than updated since versions restart then
+    public synchronized void clear() {
+        entries.clear();
+        this.indexVersion = -1;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    // Drops every entry once a newer index version is seen
+    private void checkVersion(long indexVersion) {
+        if (indexVersion > this.indexVersion) {
+            entries.clear();
+            this.indexVersion = indexVersion;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+
+import java.io.IOException;
+
+// Collects the k best hits of a search into primitive arrays and hands them to a Handler in rank order.
+// Unlike TopDocs no ScoreDoc is allocated per hit, so memory depends only on k.
+// The collection id of a hit is read while its segment is collected, so the ids stay valid after the searcher is
+// released and the index refreshed, unlike the doc ids.
+public class RankedHitCollector extends Collector {
+
+    // Receives the collected hits best first, rank starting from 0
+    public interface Handler {
+        void hit(int rank, int doc, int id, float score) throws IOException;
+    }
+
+    // Min-heap of the hits collected so far, the worst hit is at the root
+    private final int[] docs;
+    private final int[] ids;
+    private final float[] scores;
+    private int size;
+    private boolean sorted;
+
+    private int totalHits;
+    private int docBase;
+    private NumericDocValues segmentIds;
+    private Scorer scorer;
+
+    public RankedHitCollector(int k) {
+        this.docs = new int[k];
+        this.ids = new int[k];
+        this.scores = new float[k];
+        this.size = 0;
+        this.sorted = false;
+        this.totalHits = 0;
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    // Number of hits that will be passed to the handler
+    public int size() {
+        return size;
+    }
+
+    // Passes the collected hits to the handler in rank order, ties broken by lower doc id like TopDocs
+    public void replay(Handler handler) throws IOException {
+        if (!sorted) {
+            // Heap sort: move the worst remaining hit behind the heap until it is empty
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                downHeap(0, end);
+            }
+            sorted = true;
+        }
+        for (int i = 0; i < size; i++) {
+            handler.hit(i, docs[i], ids[i], scores[i]);
+        }
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) {
+        this.scorer = scorer;
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        float score = scorer.score();
+        int segmentDoc = doc;
+        doc += docBase;
+        totalHits++;
+
+        if (size < docs.length) {
+            docs[size] = doc;
+            ids[size] = (int) segmentIds.get(segmentDoc);
+            scores[size] = score;
+            upHeap(size++);
+        }
+        else if (size > 0 && worse(scores[0], docs[0], score, doc)) {
+            docs[0] = doc;
+            ids[0] = (int) segmentIds.get(segmentDoc);
+            scores[0] = score;
+            downHeap(0, size);
+        }
+    }
+
+    @Override
+    public void setNextReader(AtomicReaderContext context) throws IOException {
+        this.docBase = context.docBase;
+        this.segmentIds = context.reader().getNumericDocValues("id");
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        // Ties are resolved on the doc id explicitly, so the collection order does not matter
+        return true;
+    }
+
+    private static boolean worse(float score, int doc, float otherScore, int otherDoc) {
+        return score < otherScore || (score == otherScore && doc > otherDoc);
+    }
+
+    private void upHeap(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(scores[i], docs[i], scores[parent], docs[parent])) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void downHeap(int i, int end) {
+        while (true) {
+            int worst = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < end && worse(scores[left], docs[left], scores[worst], docs[worst])) {
+                worst = left;
+            }
+            if (right < end && worse(scores[right], docs[right], scores[worst], docs[worst])) {
+                worst = right;
+            }
+            if (worst == i) {
+                break;
+            }
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int doc = docs[i];
+        docs[i] = docs[j];
+        docs[j] = doc;
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        float score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
@@ -22,9 +22,18 @@ import org.xml.sax.helpers.DefaultHandler;
 
 public class RssFeedParser extends DefaultHandler {
 	
+	// SimpleDateFormat is not thread-safe, every thread parsing feeds gets its own
+	private static final ThreadLocal<DateFormat> formatter = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
+		}
+	};
+	
 	private List<RssFeedDocument> docs;
 	
-	private DateFormat formatter;
+	// text of the current element, which the SAX parser may deliver in several chunks
+	private StringBuilder currentText;
 	
 	private boolean item;
 	private boolean title;
@@ -35,8 +44,7 @@ public class RssFeedParser extends DefaultHandler {
 	
 	public RssFeedParser() {
 		this.docs = new LinkedList<RssFeedDocument>();
-		
-		this.formatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
+		this.currentText = new StringBuilder();
 		
 		this.item = false;
 		this.title = false;
@@ -44,17 +52,16 @@ public class RssFeedParser extends DefaultHandler {
 		this.pubDate = false;
 	}
 	
-	// parses the RSS feed in the given URI
-	public void parse(String uri) {
+	// parses the RSS feed in the given URI, a feed that cannot be read or is not well-formed fails as a whole
+	// and its items parsed so far must not be used
+	public void parse(String uri) throws IOException {
 		try {
 			SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
 			parser.parse(uri, this);
 		} catch (ParserConfigurationException e) {
-			e.printStackTrace();
+			throw new IOException(e);
 		} catch (SAXException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+			throw new IOException("Malformed feed " + uri + ": " + e.getMessage(), e);
 		}
 	}
 	
@@ -77,6 +84,7 @@ public class RssFeedParser extends DefaultHandler {
 			this.description = true;
 		else if (qName.equals("pubDate"))
 			this.pubDate = true;
+		this.currentText.setLength(0);
 	}
 	
 	public void endElement(String uri, String localName, String qName)  {
@@ -85,31 +93,31 @@ public class RssFeedParser extends DefaultHandler {
 			if (this.currentDoc.getTitle() != null)
 				docs.add(this.currentDoc);
 		}
-		else if (qName.equals("title"))
+		else if (qName.equals("title")) {
+			if (this.item)
+				this.currentDoc.setTitle(this.currentText.toString());
 			this.title = false;
-		else if (qName.equals("description"))
+		}
+		else if (qName.equals("description")) {
+			if (this.item)
+				this.currentDoc.setDescription(this.currentText.toString());
 			this.description = false;
-		else if (qName.equals("pubDate"))
-			this.pubDate = false;
-	}
-	
-	public void characters(char[] ch, int start, int length) {
-		String text = "";
-		for (int i=0; i<length; i++)
-			text += ch[start+i];
-		if (this.item) {
-			if (this.title)
-				this.currentDoc.setTitle(text);
-			else if (this.description)
-				this.currentDoc.setDescription(text);
-			else if (this.pubDate) {
+		}
+		else if (qName.equals("pubDate")) {
+			if (this.item) {
 				try {
-					this.currentDoc.setPubDate(this.formatter.parse(text));
+					this.currentDoc.setPubDate(formatter.get().parse(this.currentText.toString().trim()));
 				} catch (ParseException e) {
 					e.printStackTrace();
 				}
 			}
+			this.pubDate = false;
 		}
 	}
 	
+	public void characters(char[] ch, int start, int length) {
+		if (this.item && (this.title || this.description || this.pubDate))
+			this.currentText.append(ch, start, length);
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,361 @@
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Ingests a directory of RSS feed files into a persistent index of their items.
+// The feeds are parsed in parallel, one RssFeedParser per file, and the workers add the items straight to the
+// shared IndexWriter. Items are deduplicated by a hash of their title and description, across feeds and across
+// runs, and the publication date is indexed as a numeric field so searches can be restricted to a time range.
+// The length and modification time of every ingested feed are kept in the commit data, so a re-run only parses
+// the feeds that changed and only adds the items not indexed yet.
+public class RssIndexer {
+
+    public static final String TITLE = "title";
+    public static final String DESCRIPTION = "description";
+    public static final String PUB_DATE = "pubDate";
+    public static final String HASH = "hash";
+
+    // Commit data key of a feed file, its value is "<length>:<lastModified>" as of the last ingestion
+    private static final String FEED_PREFIX = "feed:";
+
+    // The hits of a search with their stored items, read from the searcher that found them
+    public static class Results extends TopDocs {
+
+        private final RssFeedDocument[] items;
+
+        private Results(TopDocs hits, RssFeedDocument[] items) {
+            super(hits.totalHits, hits.scoreDocs, hits.getMaxScore());
+            this.items = items;
+        }
+
+        // The items of the hits in rank order
+        public RssFeedDocument[] getItems() {
+            return items;
+        }
+    }
+
+    private final Directory directory;
+    private final Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_42);
+    // Opened with the first commit of the index, see searcherManager()
+    private SearcherManager searcherManager;
+
+    public RssIndexer(File indexPath) throws IOException {
+        this.directory = new MMapDirectory(indexPath);
+        this.searcherManager = null;
+    }
+
+    // Indexes the new items of the changed feed files (*.xml and *.rss) in the directory using the given number of
+    // threads and returns the number of items added
+    public int ingest(File feedDirectory, int threads) throws IOException {
+        File[] files = feedDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                return file.isFile() && (name.endsWith(".xml") || name.endsWith(".rss"));
+            }
+        });
+        if (files == null) {
+            throw new IOException(feedDirectory + " is not a directory");
+        }
+
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_42, analyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        final IndexWriter writer = new IndexWriter(directory, config);
+
+        long start = System.nanoTime();
+        int added = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, String> commitData = new HashMap<String, String>();
+            Map<File, String> changed = new LinkedHashMap<File, String>();
+            if (DirectoryReader.indexExists(directory)) {
+                commitData.putAll(lastCommitData());
+            }
+            for (File file : files) {
+                String stamp = file.length() + ":" + file.lastModified();
+                if (!stamp.equals(commitData.get(FEED_PREFIX + file.getAbsolutePath()))) {
+                    changed.put(file, stamp);
+                }
+            }
+            if (changed.isEmpty()) {
+                writer.rollback();
+                return 0;
+            }
+
+            // Hashes of the items indexed so far, by earlier runs or by any worker of this one
+            final Set<String> hashes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            loadHashes(hashes);
+
+            // A feed that fails to parse adds no items and keeps its old stamp, so the next run retries it
+            Map<File, Future<Integer>> feeds = new LinkedHashMap<File, Future<Integer>>();
+            for (final File file : changed.keySet()) {
+                feeds.put(file, pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        long parseStart = System.nanoTime();
+                        RssFeedParser parser = new RssFeedParser();
+                        try {
+                            parser.parse(file.getPath());
+                        }
+                        catch (IOException e) {
+                            System.out.println("Caught IOException while parsing the feed " + file + " : " + e.getMessage());
+                            return null;
+                        }
+                        Metrics.record(Metrics.PARSING, parseStart);
+
+                        IndexedItem document = new IndexedItem();
+                        int feedAdded = 0;
+                        for (RssFeedDocument item : parser.getDocuments()) {
+                            String hash = hash(item);
+                            if (hashes.add(hash)) {
+                                writer.addDocument(document.set(item, hash));
+                                feedAdded++;
+                            }
+                        }
+                        return feedAdded;
+                    }
+                }));
+            }
+            for (Map.Entry<File, Future<Integer>> feed : feeds.entrySet()) {
+                Integer feedAdded = feed.getValue().get();
+                if (feedAdded != null) {
+                    added += feedAdded;
+                    commitData.put(FEED_PREFIX + feed.getKey().getAbsolutePath(), changed.get(feed.getKey()));
+                }
+            }
+
+            writer.setCommitData(commitData);
+            writer.close();
+        }
+        catch (ExecutionException e) {
+            writer.rollback();
+            throw new IOException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            writer.rollback();
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (IOException e) {
+            writer.rollback();
+            throw e;
+        }
+        finally {
+            pool.shutdown();
+        }
+        Metrics.record(Metrics.INDEXING, start);
+        Metrics.increment("rss.items", added);
+
+        SearcherManager manager = searcherManager();
+        if (manager != null) {
+            manager.maybeRefresh();
+        }
+        return added;
+    }
+
+    // Returns the searcher manager, opening it if the index exists by now, null if it does not
+    private synchronized SearcherManager searcherManager() throws IOException {
+        if (searcherManager == null && DirectoryReader.indexExists(directory)) {
+            searcherManager = new SearcherManager(directory, null);
+        }
+        return searcherManager;
+    }
+
+    private Map<String, String> lastCommitData() throws IOException {
+        DirectoryReader reader = DirectoryReader.open(directory);
+        try {
+            return reader.getIndexCommit().getUserData();
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    // Reads the hash of every indexed item from the terms dictionary, without loading stored fields
+    private void loadHashes(Set<String> hashes) throws IOException {
+        if (!DirectoryReader.indexExists(directory)) {
+            return;
+        }
+        DirectoryReader reader = DirectoryReader.open(directory);
+        try {
+            for (AtomicReaderContext context : reader.leaves()) {
+                Terms terms = context.reader().terms(HASH);
+                if (terms == null) {
+                    continue;
+                }
+                TermsEnum termsEnum = terms.iterator(null);
+                BytesRef term;
+                while ((term = termsEnum.next()) != null) {
+                    hashes.add(term.utf8ToString());
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    // SHA-1 of the title and the description, items differing only in their publication date are duplicates
+    private static String hash(RssFeedDocument item) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(String.valueOf(item.getTitle()).getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(item.getDescription()).getBytes("UTF-8"));
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Returns the k best items for the query in their title or description published between from and to
+    // inclusive. Either bound can be null to leave that end of the range open. Items without a publication
+    // date only match when both bounds are null.
+    public Results search(String query, Date from, Date to, int k) throws IOException {
+        SearcherManager manager = searcherManager();
+        if (manager == null) {
+            return new Results(new TopDocs(0, new ScoreDoc[0], Float.NaN), new RssFeedDocument[0]);
+        }
+
+        BooleanQuery booleanQuery = new BooleanQuery();
+        TokenStream stream = analyzer.tokenStream(TITLE, new StringReader(query));
+        CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+        stream.reset();
+        while (stream.incrementToken()) {
+            booleanQuery.add(new TermQuery(new Term(TITLE, termAttribute.toString())), BooleanClause.Occur.SHOULD);
+            booleanQuery.add(new TermQuery(new Term(DESCRIPTION, termAttribute.toString())),
+                    BooleanClause.Occur.SHOULD);
+        }
+        stream.end();
+        stream.close();
+
+        // The trie terms of the numeric field turn the range into a handful of term lookups. Without bounds
+        // there is no filter, so items without a publication date still match.
+        Filter range = (from == null && to == null) ? null
+                : NumericRangeFilter.newLongRange(PUB_DATE, (from == null) ? null : from.getTime(),
+                (to == null) ? null : to.getTime(), true, true);
+
+        // The doc ids are only valid for this searcher, so the items are read before it is released
+        IndexSearcher searcher = manager.acquire();
+        try {
+            TopDocs hits = searcher.search(booleanQuery, range,
+                    Math.max(1, Math.min(k, searcher.getIndexReader().maxDoc())));
+            RssFeedDocument[] items = new RssFeedDocument[hits.scoreDocs.length];
+            for (int i = 0; i < items.length; i++) {
+                Document document = searcher.doc(hits.scoreDocs[i].doc);
+                IndexableField pubDate = document.getField(PUB_DATE);
+                items[i] = new RssFeedDocument(document.get(TITLE), document.get(DESCRIPTION),
+                        (pubDate == null) ? null : new Date(pubDate.numericValue().longValue()));
+            }
+            return new Results(hits, items);
+        }
+        finally {
+            manager.release(searcher);
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            if (searcherManager != null) {
+                searcherManager.close();
+            }
+            directory.close();
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while closing the index : " + e.getCause());
+        }
+    }
+
+    // Reusable Lucene document for an item, like IndexedDocument for the collection
+    private static class IndexedItem {
+
+        private final Document document;
+        private final Field title;
+        private final Field description;
+        private final Field pubDate;
+        private final Field hash;
+
+        private IndexedItem() {
+            this.title = new TextField(TITLE, "", Field.Store.YES);
+            this.description = new TextField(DESCRIPTION, "", Field.Store.YES);
+            this.pubDate = new LongField(PUB_DATE, 0L, Field.Store.YES);
+            this.hash = new StringField(HASH, "", Field.Store.NO);
+            this.document = new Document();
+        }
+
+        // Items without a publication date are left out of every time range
+        private Document set(RssFeedDocument item, String itemHash) {
+            title.setStringValue(item.getTitle());
+            description.setStringValue((item.getDescription() == null) ? "" : item.getDescription());
+            hash.setStringValue(itemHash);
+
+            document.getFields().clear();
+            document.add(title);
+            document.add(description);
+            document.add(hash);
+            if (item.getPubDate() != null) {
+                pubDate.setLongValue(item.getPubDate().getTime());
+                document.add(pubDate);
+            }
+            return document;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("ERROR: the feed directory and the index path have to be passed as command line arguments.");
+            return;
+        }
+
+        try {
+            RssIndexer indexer = new RssIndexer(new File(args[1]));
+            try {
+                int added = indexer.ingest(new File(args[0]), Runtime.getRuntime().availableProcessors());
+                System.out.println("Indexed " + added + " new items from " + args[0]);
+
+                if (args.length > 2) {
+                    // Optional time range in days back from now
+                    Date from = (args.length > 3)
+                            ? new Date(System.currentTimeMillis() - Long.parseLong(args[3]) * 24 * 60 * 60 * 1000)
+                            : null;
+                    for (RssFeedDocument item : indexer.search(args[2], from, null, 10).getItems()) {
+                        System.out.println(item.getPubDate() + " " + item.getTitle());
+                    }
+                }
+            }
+            finally {
+                indexer.close();
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Caught IOException while ingesting the feeds : " + e.getCause());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import org.apache.lucene.search.TopDocs;
+
+// The ranked hits of a search with the collection ids and, if requested, the titles of the hits.
+// The doc numbers of the ScoreDocs are only valid for the reader that was searched: once the index is refreshed
+// they may point to other documents. The ids and titles are therefore read from that same reader before it is
+// released, and callers must use them instead of resolving the doc numbers again later.
+public class SearchResults extends TopDocs {
+
+    private final int[] ids;
+    private final String[] titles;
+
+    public SearchResults(TopDocs results, int[] ids, String[] titles) {
+        super(results.totalHits, results.scoreDocs, results.getMaxScore());
+        this.ids = ids;
+        this.titles = titles;
+    }
+
+    // The collection ids of the hits in rank order
+    public int[] getIds() {
+        return ids;
+    }
+
+    // The titles of the hits in rank order, null if the search did not fetch them
+    public String[] getTitles() {
+        return titles;
+    }
+}
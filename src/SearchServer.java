@@ -0,0 +1,274 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Long-running HTTP search endpoint over a shared LuceneSearchApp.
+// GET /search?q=<query>&similarity=<SimilarityType>&stemmed=<true|false>&k=<k> returns the
+// ranked hits as JSON together with the time spent serving the request. Requests run on virtual threads when the
+// runtime has them. At most maxInFlight requests are served at once; the rest are shed with 503 right away instead
+// of queueing up behind them. GET /stats takes the same parameters but k and only returns the number of hits and
+// their maximum, minimum and mean score, see HitStatsCollector. GET /metrics returns the per-phase latencies
+// recorded so far, see Metrics.
+public class SearchServer {
+
+    private static final int DEFAULT_K = 10;
+
+    private final LuceneSearchApp engine;
+    private final Semaphore inFlight;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public SearchServer(LuceneSearchApp engine, int port, int maxInFlight) throws IOException {
+        this.engine = engine;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.executor = newRequestExecutor();
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleSearch(exchange);
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleStats(exchange);
+            }
+        });
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, Metrics.toJson());
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    // Virtual threads need Java 21, older runtimes fall back to a cached thread pool
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Stops accepting requests and waits up to delaySeconds for the ones in flight
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+
+        if (!inFlight.tryAcquire()) {
+            respond(exchange, 503, "{\"error\": \"overloaded\"}");
+            return;
+        }
+
+        try {
+            Map<String, String> params = parseParameters(exchange.getRequestURI().getRawQuery());
+            String query = params.get("q");
+            if (query == null || query.trim().isEmpty()) {
+                respond(exchange, 400, "{\"error\": \"missing parameter q\"}");
+                return;
+            }
+
+            LuceneSearchApp.SimilarityType similarityType;
+            int k;
+            try {
+                similarityType = params.containsKey("similarity")
+                        ? LuceneSearchApp.SimilarityType.valueOf(params.get("similarity"))
+                        : LuceneSearchApp.SimilarityType.BM25_SIMILARITY;
+                k = params.containsKey("k") ? Integer.parseInt(params.get("k")) : DEFAULT_K;
+            }
+            catch (IllegalArgumentException e) {
+                respond(exchange, 400, "{\"error\": " + Json.quote(e.getMessage()) + "}");
+                return;
+            }
+            if (k <= 0) {
+                respond(exchange, 400, "{\"error\": \"k must be positive\"}");
+                return;
+            }
+            boolean stemmed = Boolean.parseBoolean(params.get("stemmed"));
+
+            SearchResults results = engine.search(query, similarityType, stemmed, k, true);
+            if (results == null) {
+                respond(exchange, 500, "{\"error\": \"search failed\"}");
+                return;
+            }
+            int[] ids = results.getIds();
+            String[] titles = results.getTitles();
+
+            StringBuilder json = new StringBuilder();
+            json.append("{\"query\": ").append(Json.quote(query))
+                    .append(", \"similarity\": ").append(Json.quote(similarityType.name()))
+                    .append(", \"stemmed\": ").append(stemmed)
+                    .append(", \"k\": ").append(k)
+                    .append(", \"totalHits\": ").append(results.totalHits)
+                    .append(", \"hits\": [");
+            for (int i = 0; i < results.scoreDocs.length; i++) {
+                if (i > 0) {
+                    json.append(", ");
+                }
+                json.append("{\"id\": ").append(ids[i])
+                        .append(", \"score\": ").append(Json.number(results.scoreDocs[i].score))
+                        .append(", \"title\": ").append(Json.quote(titles[i]))
+                        .append("}");
+            }
+            json.append("], \"latencyMicros\": ").append((System.nanoTime() - start) / 1000).append("}");
+
+            respond(exchange, 200, json.toString());
+        }
+        finally {
+            inFlight.release();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+
+        if (!inFlight.tryAcquire()) {
+            respond(exchange, 503, "{\"error\": \"overloaded\"}");
+            return;
+        }
+
+        try {
+            Map<String, String> params = parseParameters(exchange.getRequestURI().getRawQuery());
+            String query = params.get("q");
+            if (query == null || query.trim().isEmpty()) {
+                respond(exchange, 400, "{\"error\": \"missing parameter q\"}");
+                return;
+            }
+
+            LuceneSearchApp.SimilarityType similarityType;
+            try {
+                similarityType = params.containsKey("similarity")
+                        ? LuceneSearchApp.SimilarityType.valueOf(params.get("similarity"))
+                        : LuceneSearchApp.SimilarityType.BM25_SIMILARITY;
+            }
+            catch (IllegalArgumentException e) {
+                respond(exchange, 400, "{\"error\": " + Json.quote(e.getMessage()) + "}");
+                return;
+            }
+            boolean stemmed = Boolean.parseBoolean(params.get("stemmed"));
+
+            HitStatsCollector stats = engine.searchStats(query, similarityType, stemmed, null);
+            if (stats == null) {
+                respond(exchange, 500, "{\"error\": \"search failed\"}");
+                return;
+            }
+
+            respond(exchange, 200, "{\"query\": " + Json.quote(query)
+                    + ", \"similarity\": " + Json.quote(similarityType.name())
+                    + ", \"stemmed\": " + stemmed
+                    + ", \"totalHits\": " + stats.getTotalHits()
+                    + ", \"maxScore\": " + Json.number(stats.getMaxScore())
+                    + ", \"minScore\": " + Json.number(stats.getMinScore())
+                    + ", \"meanScore\": " + Json.number(stats.getMeanScore())
+                    + ", \"latencyMicros\": " + (System.nanoTime() - start) / 1000 + "}");
+        }
+        finally {
+            inFlight.release();
+        }
+    }
+
+    private static Map<String, String> parseParameters(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return params;
+        }
+
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 0) {
+            int port = (args.length > 1) ? Integer.parseInt(args[1]) : 8080;
+            int maxInFlight = (args.length > 2) ? Integer.parseInt(args[2]) : 256;
+            int shards = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+
+            DocumentCollectionParser parser = new DocumentCollectionParser();
+            parser.parse(args[0]);
+
+            final LuceneSearchApp engine = new LuceneSearchApp();
+            engine.enableQueryCache(1024);
+            engine.enableTitleCache(4096);
+            if (shards > 1) {
+                engine.index(parser.getDocuments(), shards);
+            }
+            else {
+                engine.index(parser.getDocuments());
+            }
+
+            try {
+                final SearchServer server = new SearchServer(engine, port, maxInFlight);
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override
+                    public void run() {
+                        server.stop(1);
+                        engine.close();
+                    }
+                });
+                server.start();
+                System.out.println("Serving searches on http://localhost:" + server.getPort() + "/search?q=...");
+            }
+            catch (IOException e) {
+                System.out.println("Caught IOException while starting the server : " + e.getCause());
+                engine.close();
+            }
+        }
+        else {
+            System.out.println("ERROR: the path of a XML document has to be passed as a command line argument.");
+        }
+    }
+}
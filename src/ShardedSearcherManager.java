@@ -0,0 +1,92 @@
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.List;
+
+// Shares a searcher over all shards of a sharded index, like SearcherManager does for a single index.
+// The shards are opened as one MultiReader, so term and collection statistics, and with them the scores, are the
+// ones of the whole collection. A refresh only reopens the shards that changed.
+public class ShardedSearcherManager extends ReferenceManager<IndexSearcher> {
+
+    private final SearcherFactory searcherFactory;
+
+    public ShardedSearcherManager(Directory[] shards, SearcherFactory searcherFactory) throws IOException {
+        this.searcherFactory = searcherFactory;
+
+        DirectoryReader[] readers = new DirectoryReader[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            readers[i] = DirectoryReader.open(shards[i]);
+        }
+        this.current = newSearcher(readers);
+    }
+
+    // Sum of the versions of the shards, it grows whenever one of them changes
+    public static long getVersion(IndexReader reader) {
+        if (reader instanceof DirectoryReader) {
+            return ((DirectoryReader) reader).getVersion();
+        }
+
+        long version = 0;
+        List<IndexReaderContext> shards = reader.getContext().children();
+        for (IndexReaderContext shard : shards) {
+            version += ((DirectoryReader) shard.reader()).getVersion();
+        }
+        return version;
+    }
+
+    // The MultiReader takes its own reference of every shard reader, ours are dropped once it holds them
+    private IndexSearcher newSearcher(DirectoryReader[] readers) throws IOException {
+        try {
+            return searcherFactory.newSearcher(new MultiReader(readers, false));
+        }
+        finally {
+            for (DirectoryReader reader : readers) {
+                reader.decRef();
+            }
+        }
+    }
+
+    @Override
+    protected void decRef(IndexSearcher searcher) throws IOException {
+        searcher.getIndexReader().decRef();
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+        List<IndexReaderContext> shards = referenceToRefresh.getIndexReader().getContext().children();
+        DirectoryReader[] readers = new DirectoryReader[shards.size()];
+        boolean changed = false;
+        for (int i = 0; i < readers.length; i++) {
+            DirectoryReader reader = (DirectoryReader) shards.get(i).reader();
+            DirectoryReader reopened = DirectoryReader.openIfChanged(reader);
+            if (reopened != null) {
+                readers[i] = reopened;
+                changed = true;
+            }
+            else {
+                reader.incRef();
+                readers[i] = reader;
+            }
+        }
+
+        if (!changed) {
+            for (DirectoryReader reader : readers) {
+                reader.decRef();
+            }
+            return null;
+        }
+        return newSearcher(readers);
+    }
+
+    @Override
+    protected boolean tryIncRef(IndexSearcher reference) {
+        return reference.getIndexReader().tryIncRef();
+    }
+}
@@ -0,0 +1,297 @@
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Evaluates a grid of similarities against the qrels to find the best parameters, without editing the code and
+// rerunning the whole pipeline for each of them.
+// The whole sweep runs on one searcher acquired from the engine: the queries are analyzed once per stemming
+// choice, the id doc values and the norms are loaded once per segment and every configuration reuses them.
+// Each configuration gets one IndexSearcher for all its queries, and the configurations are searched in
+// parallel, so a grid of hundreds of points takes seconds on a small collection.
+public class SimilaritySweep {
+
+    // The metrics the best configurations are reported for, see Summary
+    public static final String[] METRICS = {"map", "precisionAtK", "ndcgAtK", "f1", "recall", "prCurveArea"};
+
+    // Means of the evaluation metrics of one configuration over all queries
+    public static class Summary {
+
+        private final ExperimentRunner.Configuration configuration;
+        private final double[] means;
+
+        private Summary(ExperimentRunner.Configuration configuration, List<ExperimentRunner.Result> results) {
+            this.configuration = configuration;
+            this.means = new double[METRICS.length];
+            for (ExperimentRunner.Result result : results) {
+                means[0] += result.getAveragePrecision();
+                means[1] += result.getPrecisionAtK();
+                means[2] += result.getNdcgAtK();
+                means[3] += result.getF1();
+                means[4] += result.getRecall();
+                means[5] += result.getPrCurveArea();
+            }
+            for (int i = 0; i < means.length && !results.isEmpty(); i++) {
+                means[i] /= results.size();
+            }
+        }
+
+        public ExperimentRunner.Configuration getConfiguration() {
+            return configuration;
+        }
+
+        // Mean of the metric with the given index in METRICS
+        public double getMean(int metric) {
+            return means[metric];
+        }
+    }
+
+    private final LuceneSearchApp engine;
+    private final Qrels qrels;
+    private final int searchTaskNumber;
+    private final int k;
+    private final int threads;
+
+    public SimilaritySweep(LuceneSearchApp engine, Qrels qrels, int searchTaskNumber, int k) {
+        this(engine, qrels, searchTaskNumber, k, Runtime.getRuntime().availableProcessors());
+    }
+
+    public SimilaritySweep(LuceneSearchApp engine, Qrels qrels, int searchTaskNumber, int k, int threads) {
+        this.engine = engine;
+        this.qrels = qrels;
+        this.searchTaskNumber = searchTaskNumber;
+        this.k = k;
+        this.threads = threads;
+    }
+
+    // BM25 at every pair of the k1 and b values, every VSMSimilarity variant and DefaultSimilarity,
+    // each with and without stemming
+    public static List<ExperimentRunner.Configuration> grid(float[] k1Values, float[] bValues) {
+        List<ExperimentRunner.Configuration> configurations = new ArrayList<ExperimentRunner.Configuration>();
+        for (boolean stemmed : new boolean[] {false, true}) {
+            for (float k1 : k1Values) {
+                for (float b : bValues) {
+                    configurations.add(new ExperimentRunner.Configuration("BM25(k1=" + k1 + ", b=" + b + ")",
+                            new BM25Similarity(k1, b), stemmed));
+                }
+            }
+            for (boolean sublinear : new boolean[] {false, true}) {
+                for (boolean coord : new boolean[] {false, true}) {
+                    for (boolean idf : new boolean[] {false, true}) {
+                        VSMSimilarity similarity = new VSMSimilarity(sublinear, coord, idf);
+                        configurations.add(new ExperimentRunner.Configuration(similarity.toString(), similarity,
+                                stemmed));
+                    }
+                }
+            }
+            configurations.add(new ExperimentRunner.Configuration("DefaultSimilarity", new DefaultSimilarity(),
+                    stemmed));
+        }
+        return configurations;
+    }
+
+    // k1 from 0.2 to 3.0 and b from 0 to 1 in steps of 0.2 and 0.1, 348 configurations in all
+    public static List<ExperimentRunner.Configuration> defaultGrid() {
+        float[] k1Values = new float[15];
+        for (int i = 0; i < k1Values.length; i++) {
+            k1Values[i] = (i + 1) / 5f;
+        }
+        float[] bValues = new float[11];
+        for (int i = 0; i < bValues.length; i++) {
+            bValues[i] = i / 10f;
+        }
+        return grid(k1Values, bValues);
+    }
+
+    // Searches and evaluates all queries in all configurations, results are ordered by configuration, then query
+    public List<ExperimentRunner.Result> run(final List<String> queries,
+                                             List<ExperimentRunner.Configuration> configurations) throws IOException {
+        final IndexSearcher shared = engine.acquireSearcher();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final IndexReader reader = shared.getIndexReader();
+            final NumericDocValues idValues = MultiDocValues.getNumericValues(reader, "id");
+            final Map<Boolean, List<BooleanQuery>> parsedQueries = new HashMap<Boolean, List<BooleanQuery>>();
+            for (boolean stemmed : new boolean[] {false, true}) {
+                List<BooleanQuery> parsed = new ArrayList<BooleanQuery>();
+                for (String query : queries) {
+                    parsed.add(engine.parseQuery(query, stemmed));
+                }
+                parsedQueries.put(stemmed, parsed);
+            }
+
+            List<Future<List<ExperimentRunner.Result>>> futures =
+                    new ArrayList<Future<List<ExperimentRunner.Result>>>();
+            for (final ExperimentRunner.Configuration configuration : configurations) {
+                futures.add(pool.submit(new Callable<List<ExperimentRunner.Result>>() {
+                    @Override
+                    public List<ExperimentRunner.Result> call() throws IOException {
+                        IndexSearcher searcher = new IndexSearcher(reader);
+                        searcher.setSimilarity(configuration.getSimilarity());
+                        List<BooleanQuery> parsed = parsedQueries.get(configuration.isStemmed());
+
+                        List<ExperimentRunner.Result> results = new ArrayList<ExperimentRunner.Result>();
+                        for (int i = 0; i < queries.size(); i++) {
+                            long start = System.nanoTime();
+                            TopDocs retrieved = searcher.search(parsed.get(i), Math.max(1, reader.maxDoc()));
+                            Metrics.record(Metrics.SCORING, start);
+
+                            start = System.nanoTime();
+                            ScoreDoc[] scoreDocs = retrieved.scoreDocs;
+                            int[] ids = new int[scoreDocs.length];
+                            for (int j = 0; j < scoreDocs.length; j++) {
+                                ids[j] = (int) idValues.get(scoreDocs[j].doc);
+                            }
+                            results.add(ExperimentRunner.evaluate(queries.get(i), configuration, retrieved.totalHits,
+                                    ids, qrels.get(queries.get(i), searchTaskNumber), k));
+                            Metrics.record(Metrics.EVALUATION, start);
+                        }
+                        return results;
+                    }
+                }));
+            }
+
+            List<ExperimentRunner.Result> results = new ArrayList<ExperimentRunner.Result>();
+            for (Future<List<ExperimentRunner.Result>> future : futures) {
+                results.addAll(future.get());
+            }
+            Metrics.increment("sweep.configurations", configurations.size());
+            return results;
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        finally {
+            pool.shutdown();
+            engine.releaseSearcher(shared);
+        }
+    }
+
+    // The mean metrics of each configuration, in the order of the configurations
+    public static List<Summary> summarize(List<ExperimentRunner.Result> results,
+                                          List<ExperimentRunner.Configuration> configurations) {
+        Map<ExperimentRunner.Configuration, List<ExperimentRunner.Result>> byConfiguration =
+                new HashMap<ExperimentRunner.Configuration, List<ExperimentRunner.Result>>();
+        for (ExperimentRunner.Configuration configuration : configurations) {
+            byConfiguration.put(configuration, new ArrayList<ExperimentRunner.Result>());
+        }
+        for (ExperimentRunner.Result result : results) {
+            byConfiguration.get(result.getConfiguration()).add(result);
+        }
+
+        List<Summary> summaries = new ArrayList<Summary>();
+        for (ExperimentRunner.Configuration configuration : configurations) {
+            summaries.add(new Summary(configuration, byConfiguration.get(configuration)));
+        }
+        return summaries;
+    }
+
+    // The summary with the highest mean of the metric with the given index in METRICS, the first one on ties
+    public static Summary best(List<Summary> summaries, int metric) {
+        Summary best = null;
+        for (Summary summary : summaries) {
+            if (best == null || summary.getMean(metric) > best.getMean(metric)) {
+                best = summary;
+            }
+        }
+        return best;
+    }
+
+    // Writes the mean metrics of every configuration and the best configuration per metric as one JSON document
+    public void writeReport(List<Summary> summaries, String filePath) throws IOException {
+        Writer out = new BufferedWriter(new FileWriter(filePath));
+        try {
+            out.write("{\n  \"k\": " + k + ",\n  \"searchTaskNumber\": " + searchTaskNumber + ",\n");
+
+            out.write("  \"best\": {\n");
+            for (int metric = 0; metric < METRICS.length; metric++) {
+                Summary best = best(summaries, metric);
+                out.write("    " + Json.quote(METRICS[metric]) + ": " + (best == null ? "null"
+                        : "{\"similarity\": " + Json.quote(best.getConfiguration().getName())
+                        + ", \"stemmed\": " + best.getConfiguration().isStemmed()
+                        + ", \"value\": " + Json.number((float) best.getMean(metric)) + "}")
+                        + (metric < METRICS.length - 1 ? "," : "") + "\n");
+            }
+            out.write("  },\n");
+
+            out.write("  \"configurations\": [\n");
+            for (int i = 0; i < summaries.size(); i++) {
+                Summary summary = summaries.get(i);
+                out.write("    {\"similarity\": " + Json.quote(summary.getConfiguration().getName())
+                        + ", \"stemmed\": " + summary.getConfiguration().isStemmed());
+                for (int metric = 0; metric < METRICS.length; metric++) {
+                    out.write(", " + Json.quote(METRICS[metric]) + ": " + Json.number((float) summary.getMean(metric)));
+                }
+                out.write("}" + (i < summaries.size() - 1 ? "," : "") + "\n");
+            }
+            out.write("  ]\n}\n");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    // Sweeps the default grid over the queries of one search task of the collection
+    public static void main(String[] args) {
+        if (args.length > 0) {
+            int searchTaskNumber = (args.length > 1) ? Integer.parseInt(args[1]) : 18;
+            String report = (args.length > 2) ? args[2] : "data/sweep.json";
+
+            DocumentCollectionParser parser = new DocumentCollectionParser();
+            parser.parse(args[0]);
+            CorpusStore corpus = parser.getCorpus();
+
+            // The queries the collection has judgments for in the search task
+            Set<String> queries = new LinkedHashSet<String>();
+            for (int row = 0; row < corpus.size(); row++) {
+                if (corpus.getSearchTaskNumber(row) == searchTaskNumber) {
+                    queries.add(corpus.getQuery(row));
+                }
+            }
+
+            LuceneSearchApp engine = new LuceneSearchApp();
+            engine.index(parser.getDocuments());
+            try {
+                SimilaritySweep sweep = new SimilaritySweep(engine, new Qrels(corpus), searchTaskNumber, 10);
+                List<ExperimentRunner.Configuration> configurations = defaultGrid();
+
+                long start = System.nanoTime();
+                List<Summary> summaries = summarize(sweep.run(new ArrayList<String>(queries), configurations),
+                        configurations);
+                System.out.println("Swept " + configurations.size() + " configurations over " + queries.size()
+                        + " queries in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+                for (int metric = 0; metric < METRICS.length; metric++) {
+                    Summary best = best(summaries, metric);
+                    System.out.println("Best " + METRICS[metric] + ": " + best.getConfiguration() + " = "
+                            + (float) best.getMean(metric));
+                }
+                sweep.writeReport(summaries, report);
+                System.out.println("Sweep report written to " + report);
+            }
+            catch (IOException e) {
+                System.out.println("Caught IOException while running the sweep : " + e.getCause());
+            }
+            engine.close();
+        }
+        else {
+            System.out.println("ERROR: the path of a XML document has to be passed as a command line argument.");
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.IOException;
+import java.util.*;
+
+// Loads a few stored fields of a page of ranked hits at once, e.g. the titles of the results.
+// Only the requested fields are decoded, and the visitor stops reading a document as soon as it has them all,
+// so the other stored fields like the full abstract are skipped. The documents are read in doc id order,
+// front to back through the stored fields file, and the values are put back in rank order.
+// With a cache size above 0 the values of the most recently fetched documents are kept in an LRU cache, keyed
+// by segment so they stay valid across reopened readers that share the segment.
+public class StoredFieldFetcher {
+
+    // A document of a segment, independent of the position of the segment in the reader
+    private static class Key {
+
+        private final Object segment;
+        private final int doc;
+
+        private Key(Object segment, int doc) {
+            this.segment = segment;
+            this.doc = doc;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            return this.doc == other.doc && this.segment == other.segment;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(segment) + doc;
+        }
+    }
+
+    // Collects the first value of each requested field of one document
+    private class FieldsVisitor extends StoredFieldVisitor {
+
+        private String[] values;
+        private int missing;
+
+        private void reset() {
+            this.values = new String[fields.length];
+            this.missing = fields.length;
+        }
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (missing == 0) {
+                return Status.STOP;
+            }
+            Integer index = fieldIndexes.get(fieldInfo.name);
+            return (index != null && values[index] == null) ? Status.YES : Status.NO;
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, String value) {
+            values[fieldIndexes.get(fieldInfo.name)] = value;
+            missing--;
+        }
+
+        @Override
+        public void intField(FieldInfo fieldInfo, int value) {
+            stringField(fieldInfo, Integer.toString(value));
+        }
+
+        @Override
+        public void longField(FieldInfo fieldInfo, long value) {
+            stringField(fieldInfo, Long.toString(value));
+        }
+
+        @Override
+        public void floatField(FieldInfo fieldInfo, float value) {
+            stringField(fieldInfo, Float.toString(value));
+        }
+
+        @Override
+        public void doubleField(FieldInfo fieldInfo, double value) {
+            stringField(fieldInfo, Double.toString(value));
+        }
+    }
+
+    private final String[] fields;
+    private final Map<String, Integer> fieldIndexes;
+    private final Map<Key, String[]> cache;
+
+    private long hitCount;
+    private long missCount;
+
+    public StoredFieldFetcher(String[] fields, final int cacheSize) {
+        this.fields = fields.clone();
+        this.fieldIndexes = new HashMap<String, Integer>();
+        for (int i = 0; i < fields.length; i++) {
+            fieldIndexes.put(fields[i], i);
+        }
+        this.cache = (cacheSize <= 0) ? null : new LinkedHashMap<Key, String[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, String[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.hitCount = 0;
+        this.missCount = 0;
+    }
+
+    // Returns the values of the fields of the hits, values[field][rank] with the fields in the order given to
+    // the constructor. A value is null if the document does not store the field.
+    public String[][] fetch(IndexReader reader, ScoreDoc[] hits) throws IOException {
+        String[][] values = new String[fields.length][hits.length];
+
+        // Ranks sorted by doc id
+        long[] order = new long[hits.length];
+        for (int rank = 0; rank < hits.length; rank++) {
+            order[rank] = ((long) hits[rank].doc << 32) | rank;
+        }
+        Arrays.sort(order);
+
+        List<AtomicReaderContext> leaves = reader.leaves();
+        FieldsVisitor visitor = new FieldsVisitor();
+        for (long entry : order) {
+            int doc = (int) (entry >>> 32);
+            int rank = (int) entry;
+
+            AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+            Key key = new Key(leaf.reader().getCoreCacheKey(), doc - leaf.docBase);
+            String[] documentValues = cached(key);
+            if (documentValues == null) {
+                visitor.reset();
+                leaf.reader().document(key.doc, visitor);
+                documentValues = visitor.values;
+                cache(key, documentValues);
+            }
+
+            for (int field = 0; field < fields.length; field++) {
+                values[field][rank] = documentValues[field];
+            }
+        }
+        return values;
+    }
+
+    private String[] cached(Key key) {
+        if (cache == null) {
+            return null;
+        }
+        synchronized (cache) {
+            String[] values = cache.get(key);
+            if (values != null) {
+                hitCount++;
+            }
+            else {
+                missCount++;
+            }
+            return values;
+        }
+    }
+
+    private void cache(Key key, String[] values) {
+        if (cache != null) {
+            synchronized (cache) {
+                cache.put(key, values);
+            }
+        }
+    }
+
+    public long getHitCount() {
+        if (cache == null) {
+            return 0;
+        }
+        synchronized (cache) {
+            return hitCount;
+        }
+    }
+
+    public long getMissCount() {
+        if (cache == null) {
+            return 0;
+        }
+        synchronized (cache) {
+            return missCount;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Per segment and term, the few documents that can hold the highest score of the term, see MaxScoreDisjunction.
+// For BM25 and the TF-IDF similarities the score of a term in a document only depends on the frequency of the
+// term and the norm of the field, and never decreases when the frequency grows. So the best score of a term
+// is reached by one of the documents with the highest frequency for each distinct norm value, at most 256 per
+// term. They are computed once per segment, when the segment is warmed after indexing or merging, and shared by
+// every reader of that segment; deletions only make them a looser bound.
+public final class TermImpacts {
+
+    // Terms in fewer documents get no entry, scanning their postings at query time costs no more than their
+    // representative documents
+    private static final int MIN_DOC_FREQ = 128;
+
+    private static final Map<Object, ConcurrentMap<String, Map<BytesRef, int[]>>> segments =
+            Collections.synchronizedMap(new WeakHashMap<Object, ConcurrentMap<String, Map<BytesRef, int[]>>>());
+
+    private TermImpacts() {
+
+    }
+
+    // Computes the representative documents of the terms of the field in the segment unless already done
+    public static void warm(AtomicReader reader, String field) throws IOException {
+        fieldImpacts(reader, field);
+    }
+
+    // Returns the representative documents of the term in increasing order, or null if the term is not
+    // in enough documents of the segment to have them
+    public static int[] get(AtomicReader reader, String field, BytesRef term) throws IOException {
+        return fieldImpacts(reader, field).get(term);
+    }
+
+    private static Map<BytesRef, int[]> fieldImpacts(AtomicReader reader, String field) throws IOException {
+        ConcurrentMap<String, Map<BytesRef, int[]>> fields = segments.get(reader.getCoreCacheKey());
+        if (fields == null) {
+            fields = new ConcurrentHashMap<String, Map<BytesRef, int[]>>();
+            segments.put(reader.getCoreCacheKey(), fields);
+        }
+
+        // Concurrent first searches may compute the same field twice, which is harmless
+        Map<BytesRef, int[]> impacts = fields.get(field);
+        if (impacts == null) {
+            impacts = compute(reader, field);
+            fields.put(field, impacts);
+        }
+        return impacts;
+    }
+
+    private static Map<BytesRef, int[]> compute(AtomicReader reader, String field) throws IOException {
+        Map<BytesRef, int[]> impacts = new HashMap<BytesRef, int[]>();
+        Terms terms = reader.terms(field);
+        if (terms == null) {
+            return impacts;
+        }
+
+        NumericDocValues norms = reader.getNormValues(field);
+
+        // Best frequency and its document per norm byte, and the norm bytes seen for the current term
+        int[] bestFreq = new int[256];
+        int[] bestDoc = new int[256];
+        int[] seenNorms = new int[256];
+
+        TermsEnum termsEnum = terms.iterator(null);
+        DocsEnum docsEnum = null;
+        while (termsEnum.next() != null) {
+            if (termsEnum.docFreq() < MIN_DOC_FREQ) {
+                continue;
+            }
+
+            docsEnum = termsEnum.docs(null, docsEnum, DocsEnum.FLAG_FREQS);
+            int seen = 0;
+            boolean byteNorms = true;
+            for (int doc = docsEnum.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docsEnum.nextDoc()) {
+                long norm = (norms == null) ? 0 : norms.get(doc);
+                if (norm < Byte.MIN_VALUE || norm > Byte.MAX_VALUE) {
+                    byteNorms = false;
+                    break;
+                }
+
+                int slot = (int) norm - Byte.MIN_VALUE;
+                int freq = docsEnum.freq();
+                if (bestFreq[slot] == 0) {
+                    seenNorms[seen++] = slot;
+                }
+                if (freq > bestFreq[slot]) {
+                    bestFreq[slot] = freq;
+                    bestDoc[slot] = doc;
+                }
+            }
+
+            int[] docs = new int[seen];
+            for (int i = 0; i < seen; i++) {
+                docs[i] = bestDoc[seenNorms[i]];
+                bestFreq[seenNorms[i]] = 0;
+            }
+            // Norms other than single bytes come from similarities this class knows nothing about
+            if (byteNorms) {
+                Arrays.sort(docs);
+                impacts.put(BytesRef.deepCopyOf(termsEnum.term()), docs);
+            }
+        }
+        return impacts;
+    }
+}
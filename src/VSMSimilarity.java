@@ -2,12 +2,22 @@ import org.apache.lucene.search.similarities.DefaultSimilarity;
 
 public class VSMSimilarity extends DefaultSimilarity {
 
-    private final boolean sublinear = true;
+    private final boolean sublinear;
+    private final boolean coord;
+    private final boolean idf;
 
     private static final long serialVersionUID = 1337L;
 
     public VSMSimilarity() {
+        this(true, false, true);
+    }
 
+    // Variants for parameter sweeps: sublinear or raw tf, DefaultSimilarity's coord or a flat one,
+    // DefaultSimilarity's idf or none
+    public VSMSimilarity(boolean sublinear, boolean coord, boolean idf) {
+        this.sublinear = sublinear;
+        this.coord = coord;
+        this.idf = idf;
     }
 
     // Term frequency (tf) in a document is a measure of how often a term appears in the document
@@ -23,6 +33,21 @@ public class VSMSimilarity extends DefaultSimilarity {
     // A score factor based on term overlap with the query i.e. number of terms found in the query
     @Override
     public float coord(int overlap, int maxOverlap) {
+        if (coord) {
+            return super.coord(overlap, maxOverlap);
+        }
         return 1;
     }
-}
\ No newline at end of file
+
+    @Override
+    public float idf(long docFreq, long numDocs) {
+        if (idf) {
+            return super.idf(docFreq, numDocs);
+        }
+        return 1;
+    }
+
+    public String toString() {
+        return "VSMSimilarity(sublinear=" + sublinear + ", coord=" + coord + ", idf=" + idf + ")";
+    }
+}